@@ -0,0 +1,81 @@
+import cits3001_2016s2.*;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the game loop allocates next to nothing per game once its pooled game is warm.
+ * Plays pooled games with no log file, echo off and agents that allocate nothing,
+ * and measures the heap this thread allocates with ThreadMXBean.getThreadAllocatedBytes.
+ * Run as java PooledAllocationCheck [games]; exits with status 1 if a game allocates more than MAX_BYTES_PER_GAME on average.
+ * */
+public class PooledAllocationCheck{
+
+  // A pooled game allocated under 100 bytes when this check was written
+  private static final long MAX_BYTES_PER_GAME = 1024;
+  private static final int WARMUP = 2000;
+
+  /**
+   * An agent that plays from precomputed answers: it nominates the first seats, votes yes, and betrays as a spy.
+   * */
+  private static class FixedAgent implements Agent{
+    private final String[] teams = new String[Teams.MAX_PLAYERS+1];
+    private boolean spy;
+
+    FixedAgent(){
+      for(int n = 0; n<teams.length; n++) teams[n] = Teams.of(Teams.first(n));
+    }
+
+    public void get_status(String name, String players, String spies, int mission, int failures){
+      spy = spies.indexOf(name.charAt(0))>=0;
+    }
+    public String do_Nominate(int number){return teams[number];}
+    public void get_ProposedMission(String leader, String mission){}
+    public boolean do_Vote(){return true;}
+    public void get_Votes(String yays){}
+    public void get_Mission(String mission){}
+    public boolean do_Betray(){return spy;}
+    public void get_Traitors(int traitors){}
+    public String do_Accuse(){return "";}
+    public void get_Accusation(String accuser, String accused){}
+  }
+
+  public static void main(String[] args){
+    int games = args.length>0?Integer.parseInt(args[0]):20000;
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    if(!threads.isThreadAllocatedMemorySupported()){
+      System.out.println("Thread allocation counting is not supported by this JVM");
+      return;
+    }
+    threads.setThreadAllocatedMemoryEnabled(true);
+    Agent[] agents = new Agent[Teams.MAX_PLAYERS];
+    for(int i = 0; i<agents.length; i++) agents[i] = new FixedAgent();
+    Competitor owner = new Competitor(agents[0], "Fixed", "none");
+    play(WARMUP, agents, owner);
+    long id = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(id);
+    play(games, agents, owner);
+    long perGame = (threads.getThreadAllocatedBytes(id)-before)/games;
+    System.out.println(perGame+" bytes allocated per pooled game");
+    if(perGame>MAX_BYTES_PER_GAME){
+      System.out.println("FAIL: more than "+MAX_BYTES_PER_GAME+" bytes per game");
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Plays pooled games of 5 to 10 players, with no log.
+   * @param games the number of games
+   * @param agents the agents to seat
+   * @param owner the competitor the agents play for
+   * */
+  private static void play(int games, Agent[] agents, Competitor owner){
+    for(int i = 0; i<games; i++){
+      Game g = Game.pooled(null, i, false);
+      int players = 5+i%6;
+      for(int p = 0; p<players; p++) g.addPlayer(agents[p], owner);
+      g.setup();
+      g.play();
+    }
+  }
+
+}
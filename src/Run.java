@@ -2,9 +2,25 @@ import cits3001_2016s2.*;
 import s21469477.*;
 
 import java.io.*;
+import java.util.*;
 
 public class Run{
 
+ /**
+  * Runs a tournament and writes the results to Results.html.
+  * @param args optionally the number of rounds (default 500), and the number of shards to split them into, each played in its own JVM,
+  * or "adaptive" and the most rounds to play (default 100000) to stop as soon as the ranking is settled,
+  * or "balanced" and the number of rounds to play on a schedule that balances roles and table sizes,
+  * or "checkpoint", the number of rounds and the games between checkpoints (default 1000) to save progress to Tournament.checkpoint,
+  * or "resume" and the games between checkpoints to carry on from Tournament.checkpoint,
+  * or "rated" and the number of rounds (default 500) to play on all processors and rank the competitors by rating,
+  * or "variants", the number of HeuristicAgent variants with randomly perturbed parameters (default 1000) and the number of rounds (default 500)
+  * to play a tournament of a field of variants, each named by its parameters,
+  * or "duplicate" and the number of deals (default 100) to replay each deal in every rotation of its lineup and score paired differences,
+  * or "matchup" and the most games per cell (default 2000) to play every pair of competitors against each other, also written to Matchup.csv,
+  * or "cfr" and the number of rounds (default 500) to add CfrAgent to the field. Solve its table first with java s21469477.CfrSolver,
+  * which writes CfrAgent.cfr; without the table the agent solves a short one every time it is loaded
+  * */
  public static void main(String args[]){
 
   try{
@@ -14,12 +30,49 @@ public class Run{
         new Competitor(new s21469477.DimitriDevil(),"DimitriDevil","Pradyumn"),
         new Competitor(new s21469477.HeuristicAgent(),"HeuristicHarry","Pradyumn")
         };
-      fw.write(Game.tournament(contenders, 500));
+      if(args.length>0 && args[0].equals("adaptive"))
+        fw.write(SequentialTournament.tournament(contenders, 0.05, 0.02, 100, args.length>1?Integer.parseInt(args[1]):100000, new Random().nextLong()));
+      else if(args.length>0 && args[0].equals("checkpoint"))
+        fw.write(Checkpoint.tournament(contenders, args.length>1?Integer.parseInt(args[1]):100000, new Random().nextLong(), false, new File("Tournament.checkpoint"), args.length>2?Integer.parseInt(args[2]):1000));
+      else if(args.length>0 && args[0].equals("resume"))
+        fw.write(Checkpoint.resume(contenders, new File("Tournament.checkpoint"), args.length>1?Integer.parseInt(args[1]):1000));
+      else if(args.length>0 && args[0].equals("rated"))
+        fw.write(RatingEngine.tournament(contenders, args.length>1?Integer.parseInt(args[1]):500, new Random().nextLong(), Runtime.getRuntime().availableProcessors()));
+      else if(args.length>0 && args[0].equals("variants")){
+        Random r = new Random();
+        Competitor[] field = new Competitor[args.length>1?Integer.parseInt(args[1]):1000];
+        for(int i = 0; i<field.length; i++){
+          double[] params = HeuristicAgent.defaultParameters();
+          for(int k = 0; k<params.length; k++) params[k] = Math.round(100*Math.min(1, Math.max(0, params[k]+0.1*r.nextGaussian())))/100.0;
+          field[i] = new Competitor("Harry"+i+Arrays.toString(params), "Pradyumn", HeuristicAgent::new, params);
+        }
+        fw.write(Game.tournament(field, args.length>2?Integer.parseInt(args[2]):500));
+      }
+      else if(args.length>0 && args[0].equals("duplicate"))
+        fw.write(DuplicateTournament.tournament(contenders, args.length>1?Integer.parseInt(args[1]):100, new Random().nextLong()));
+      else if(args.length>0 && args[0].equals("matchup")){
+        Matchup m = new Matchup(contenders);
+        m.play(0.02, 100, args.length>1?Integer.parseInt(args[1]):2000, new Random().nextLong(), Runtime.getRuntime().availableProcessors());
+        FileWriter csv = new FileWriter("Matchup.csv");
+        csv.write(m.csv());
+        csv.close();
+        fw.write(m.html());
+      }
+      else if(args.length>0 && args[0].equals("cfr")){
+        Competitor[] field = Arrays.copyOf(contenders, contenders.length+1);
+        field[contenders.length] = new Competitor(new s21469477.CfrAgent(),"CfrCarl","Pradyumn");
+        fw.write(Game.tournament(field, args.length>1?Integer.parseInt(args[1]):500));
+      }
+      else if(args.length>0 && args[0].equals("balanced"))
+        fw.write(BalancedSchedule.tournament(contenders, args.length>1?Integer.parseInt(args[1]):500, new Random().nextLong()));
+      else{
+        int rounds = args.length>0?Integer.parseInt(args[0]):500;
+        if(args.length>1) fw.write(ShardedTournament.tournament(contenders, rounds, Integer.parseInt(args[1]), new Random().nextLong()));
+        else fw.write(Game.tournament(contenders, rounds));
+      }
       fw.close();
     }
     catch(IOException e){System.out.println("IO fail");}
   }
 
 }  
-
-
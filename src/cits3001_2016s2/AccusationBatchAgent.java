@@ -0,0 +1,19 @@
+package cits3001_2016s2;
+
+import java.util.List;
+
+/**
+ * An optional extension of the Agent interface, for agents that take all of a round's accusations in a single call.
+ * The game calls get_Accusations once a round instead of calling get_Accusation once for each accuser.
+ * **/
+public interface AccusationBatchAgent extends Agent{
+
+  /**
+   * Processes all the accusations of a round.
+   * @param accusers a String containing the name of each accuser, in the order of the accusations.
+   * @param accused accused.get(i) is the names of the Agents accused by accusers.charAt(i), concatenated in a String. The list is shared by all players and is read-only.
+   * @return within 100ms
+   * */
+  public void get_Accusations(String accusers, List<String> accused);
+
+}
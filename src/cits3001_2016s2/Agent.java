@@ -8,6 +8,9 @@ package cits3001_2016s2;
  * Generally, methods will be used for informing agents of game events (get_ methods), must return in 100ms) or requiring actions (do_ methods, must return in 1000ms).
  * Constructor must return within 1 second.
  * If actions do not meet the required specification, a nominated default action will be recorded.
+ * A method that throws an exception, returns null or runs over its time limit is a strike against the agent, and its default action is taken:
+ * the first agents for do_Nominate, no for do_Vote and do_Betray, and the empty String for do_Accuse.
+ * After three strikes in a game (see Game.setMaxStrikes) a RandomAgent takes the agent's seat for the rest of the game.
  * @author Tim French
  * **/
 
@@ -0,0 +1,50 @@
+package cits3001_2016s2;
+
+import java.util.function.IntFunction;
+
+/**
+ * Refines a decision by successively harder computations until a deadline draws near, returning the best finished one.
+ * Level 0 is always computed, so there is always an answer, and each further level is only started
+ * if it is predicted to finish before the deadline less a reserve.
+ * A level is predicted to take as long as the last one times the growth in time between the last two, and at least twice as long,
+ * which suits computations whose cost at least doubles with the level, such as doubling a sample or deepening a search.
+ * */
+public class Anytime{
+
+  /**
+   * Computes levels 0, 1, 2, ... of a decision for as long as the deadline allows.
+   * @param deadline the System.nanoTime() the decision is needed by, e.g. as told to a DeadlineAgent, or 0 to compute level 0 only
+   * @param reserve the time to leave unused before the deadline, in nanoseconds, for the rest of the method and for timing noise
+   * @param maxLevel the highest level to compute
+   * @param step computes the decision at a level, or returns null if the level would not improve on the last
+   * @return the decision of the highest level finished
+   * */
+  public static <T> T refine(long deadline, long reserve, int maxLevel, IntFunction<T> step){
+    long start = System.nanoTime();
+    T best = step.apply(0);
+    if(deadline==0) return best;
+    long last = System.nanoTime()-start;
+    double growth = 2;
+    for(int level = 1; level<=maxLevel; level++){
+      long now = System.nanoTime();
+      if(deadline-reserve-now<last*growth) break;
+      T next = step.apply(level);
+      if(next==null) break;
+      best = next;
+      long took = System.nanoTime()-now;
+      growth = Math.max(2, (double)took/Math.max(1, last));
+      last = took;
+    }
+    return best;
+  }
+
+  /**
+   * The time left before a deadline.
+   * @param deadline a System.nanoTime() deadline
+   * @return the nanoseconds until the deadline, negative once it has passed
+   * */
+  public static long remaining(long deadline){
+    return deadline-System.nanoTime();
+  }
+
+}
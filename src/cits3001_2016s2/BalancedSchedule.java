@@ -0,0 +1,132 @@
+package cits3001_2016s2;
+
+import java.util.*;
+
+/**
+ * Schedules tournament games so every competitor gets an even share of plays in each role at each table size.
+ * Table sizes run through blocks of six games, each block a random order of 5 to 10 players, so every size is played equally often.
+ * Each spy and resistance place at the table goes to the competitor with the fewest plays in that role at that table size so far,
+ * with ties broken at random, and the places are then dealt to random seats.
+ * The random choices of a round depend only on the schedule seed and the round number,
+ * so the only state of a schedule is its play counts.
+ * */
+public class BalancedSchedule{
+
+  private long seed;
+  // plays[c][n-5][role] is the number of plays competitor c has had at an n player table, as resistance (0) or spy (1)
+  private int[][][] plays;
+
+  /**
+   * Creates a schedule.
+   * @param competitors the number of competitors
+   * @param seed the schedule seed
+   * */
+  public BalancedSchedule(int competitors, long seed){
+    // keep the schedule's random choices apart from the games', which are seeded from the same tournament seed
+    this.seed = Game.roundSeed(seed, -1);
+    plays = new int[competitors][6][2];
+  }
+
+  /**
+   * Deals the lineup for a round, and counts its plays.
+   * Rounds should be dealt in order.
+   * @param round the round number
+   * @return the deal for the round
+   * */
+  public Deal next(int round){
+    Random rand = new Random(Game.roundSeed(seed, round));
+    int numPlayers = tableSize(round);
+    int numSpies = Game.spyNum(numPlayers);
+    int[] order = new int[numPlayers];
+    for(int i = 0; i<numPlayers; i++) order[i] = i;
+    shuffle(order, rand);
+    int[] seats = new int[numPlayers];
+    long spies = 0;
+    for(int i = 0; i<numPlayers; i++){
+      int role = i<numSpies?1:0;
+      seats[order[i]] = leastPlayed(numPlayers, role, rand);
+      plays[seats[order[i]]][numPlayers-5][role]++;
+      if(role==1) spies |= 1L<<order[i];
+    }
+    return new Deal(seats, spies);
+  }
+
+  /**
+   * The play counts, the whole state of the schedule, as one line of numbers.
+   * @return the play counts, separated by spaces
+   * */
+  public String counts(){
+    StringBuilder sb = new StringBuilder();
+    for(int[][] c: plays)
+      for(int[] n: c)
+        sb.append(n[0]).append(' ').append(n[1]).append(' ');
+    return sb.toString().trim();
+  }
+
+  /**
+   * Restores the play counts written by counts(), so a schedule can carry on from a checkpoint.
+   * @param line the play counts, separated by spaces
+   * @throws RuntimeException if the line does not hold the counts for this many competitors
+   * */
+  public void setCounts(String line){
+    String[] f = line.trim().split(" ");
+    if(f.length!=plays.length*12) throw new RuntimeException("Wrong play counts for "+plays.length+" competitors");
+    int k = 0;
+    for(int[][] c: plays)
+      for(int[] n: c){
+        n[0] = Integer.parseInt(f[k++]);
+        n[1] = Integer.parseInt(f[k++]);
+      }
+  }
+
+  /**
+   * The table size of a round: each block of six rounds is a random order of the sizes 5 to 10.
+   * @param round the round number
+   * @return the number of players in the round
+   * */
+  private int tableSize(int round){
+    int[] sizes = {5,6,7,8,9,10};
+    shuffle(sizes, new Random(Game.roundSeed(~seed, round/6)));
+    return sizes[round%6];
+  }
+
+  /**
+   * Picks, at random, one of the competitors with the fewest plays in a role at a table size.
+   * @param numPlayers the table size
+   * @param role 1 for spy, 0 for resistance
+   * @param rand the source of randomness for ties
+   * @return the index of the competitor
+   * */
+  private int leastPlayed(int numPlayers, int role, Random rand){
+    int best = -1, ties = 0;
+    for(int c = 0; c<plays.length; c++){
+      int p = plays[c][numPlayers-5][role];
+      if(best==-1 || p<plays[best][numPlayers-5][role]){best = c; ties = 1;}
+      else if(p==plays[best][numPlayers-5][role] && rand.nextInt(++ties)==0) best = c;
+    }
+    return best;
+  }
+
+  private static void shuffle(int[] a, Random rand){
+    for(int i = a.length-1; i>0; i--){
+      int j = rand.nextInt(i+1);
+      int t = a[i]; a[i] = a[j]; a[j] = t;
+    }
+  }
+
+  /**
+   * Runs a tournament on a balanced schedule.
+   * @param agents the competitors
+   * @param rounds the number of games to play
+   * @param seed the tournament seed
+   * @return an html table of the results
+   * */
+  public static String tournament(Competitor[] agents, int rounds, long seed){
+    BalancedSchedule schedule = new BalancedSchedule(agents.length, seed);
+    TournamentMetrics.get().scheduled(rounds);
+    for(int round = 0; round<rounds; round++)
+      Game.playDeal(agents, schedule.next(round), Game.roundSeed(seed, round), round, true);
+    return Game.report(agents);
+  }
+
+}
@@ -0,0 +1,135 @@
+package cits3001_2016s2;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Runs a seeded tournament that saves its progress every so many games, so a crashed or killed run can be resumed.
+ * A checkpoint holds the tournament seed, the number of rounds, the next round to play,
+ * every competitor's class or parameters, counters and latency stats, and the play counts of a balanced schedule.
+ * Every round is seeded from the tournament seed and the round number alone (see Game.roundSeed), so that is all the random state there is,
+ * and a resumed tournament plays exactly the games, with exactly the results, of an uninterrupted one.
+ * Checkpoints are written to a temporary file, synced to disk and moved over the last one, so a crash while saving leaves the last checkpoint whole.
+ * */
+public class Checkpoint{
+
+  /**
+   * Starts a checkpointed tournament, replacing any earlier checkpoint in the file.
+   * @param agents the competitors
+   * @param rounds the number of games to play
+   * @param seed the tournament seed
+   * @param balanced true to deal the games on a BalancedSchedule, false to draw them at random as Game.tournament does
+   * @param file the checkpoint file
+   * @param every the number of games between checkpoints
+   * @return an html table of the results
+   * */
+  public static String tournament(Competitor[] agents, int rounds, long seed, boolean balanced, File file, int every){
+    BalancedSchedule schedule = balanced?new BalancedSchedule(agents.length, seed):null;
+    return play(agents, rounds, seed, 0, schedule, file, every);
+  }
+
+  /**
+   * Carries on the tournament saved in a checkpoint, from the first game after the checkpoint.
+   * @param agents the competitors, in the same order as when the tournament was started. Their counters are replaced by the checkpoint's.
+   * @param file the checkpoint file
+   * @param every the number of games between checkpoints
+   * @return an html table of the results
+   * @throws RuntimeException if the checkpoint cannot be read or is for other competitors
+   * */
+  public static String resume(Competitor[] agents, File file, int every){
+    Properties p = new Properties();
+    try{
+      Reader in = new FileReader(file);
+      try{p.load(in);}
+      finally{in.close();}
+    }
+    catch(IOException e){throw new RuntimeException("Cannot read checkpoint "+file, e);}
+    if(!(""+agents.length).equals(p.getProperty("competitors"))) throw new RuntimeException("Checkpoint "+file+" is for other competitors");
+    for(int i = 0; i<agents.length; i++)
+      if(!className(agents[i]).equals(p.getProperty("competitor."+i+".class")) || !agents[i].name.equals(p.getProperty("competitor."+i+".name"))
+        || !agents[i].paramString().equals(p.getProperty("competitor."+i+".params")))
+        throw new RuntimeException("Checkpoint "+file+" is for other competitors");
+    long seed = Long.parseLong(p.getProperty("seed"));
+    int rounds = Integer.parseInt(p.getProperty("rounds"));
+    int next = Integer.parseInt(p.getProperty("next"));
+    BalancedSchedule schedule = null;
+    if(p.getProperty("schedule")!=null){
+      schedule = new BalancedSchedule(agents.length, seed);
+      schedule.setCounts(p.getProperty("schedule"));
+    }
+    for(int i = 0; i<agents.length; i++) agents[i].setCounters(p.getProperty("competitor."+i+".counters"));
+    return play(agents, rounds, seed, next, schedule, file, every);
+  }
+
+  /**
+   * Plays the rounds from next on, saving a checkpoint every so many games and after the last.
+   * @param agents the competitors
+   * @param rounds the number of games in the tournament
+   * @param seed the tournament seed
+   * @param next the first round to play
+   * @param schedule the balanced schedule, or null to draw games at random
+   * @param file the checkpoint file
+   * @param every the number of games between checkpoints
+   * @return an html table of the results
+   * */
+  private static String play(Competitor[] agents, int rounds, long seed, int next, BalancedSchedule schedule, File file, int every){
+    if(every<1) throw new RuntimeException("Need at least one game between checkpoints");
+    TournamentMetrics.get().scheduled(Math.max(0, rounds-next));
+    for(int round = next; round<rounds; round++){
+      if(schedule==null) Game.playRounds(agents, seed, round, round+1, false);
+      else Game.playDeal(agents, schedule.next(round), Game.roundSeed(seed, round), round, false);
+      if((round+1)%every==0 || round+1==rounds) save(agents, rounds, seed, round+1, schedule, file);
+    }
+    return Game.report(agents);
+  }
+
+  /**
+   * The class name recorded for a competitor.
+   * @param c the competitor
+   * @return the agent class name, or an empty String for a variant made by a factory
+   * */
+  private static String className(Competitor c){
+    return c.agent==null?"":c.agent.getName();
+  }
+
+  /**
+   * Writes a checkpoint atomically.
+   * @param agents the competitors
+   * @param rounds the number of games in the tournament
+   * @param seed the tournament seed
+   * @param next the next round to play
+   * @param schedule the balanced schedule, or null
+   * @param file the checkpoint file
+   * */
+  private static void save(Competitor[] agents, int rounds, long seed, int next, BalancedSchedule schedule, File file){
+    Properties p = new Properties();
+    p.setProperty("seed", ""+seed);
+    p.setProperty("rounds", ""+rounds);
+    p.setProperty("next", ""+next);
+    p.setProperty("competitors", ""+agents.length);
+    for(int i = 0; i<agents.length; i++){
+      p.setProperty("competitor."+i+".class", className(agents[i]));
+      p.setProperty("competitor."+i+".params", agents[i].paramString());
+      p.setProperty("competitor."+i+".name", agents[i].name);
+      p.setProperty("competitor."+i+".authors", agents[i].authors);
+      p.setProperty("competitor."+i+".counters", agents[i].counters());
+    }
+    if(schedule!=null) p.setProperty("schedule", schedule.counts());
+    File tmp = new File(file.getPath()+".tmp");
+    try{
+      FileOutputStream out = new FileOutputStream(tmp);
+      try{
+        p.store(out, "Tournament checkpoint, "+next+" of "+rounds+" games played");
+        out.getFD().sync();
+      }
+      finally{out.close();}
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(IOException e){
+      // a failed checkpoint leaves the last one in place, and the tournament carries on
+      System.out.println("Checkpoint after "+next+" games not saved: "+e);
+    }
+  }
+
+}
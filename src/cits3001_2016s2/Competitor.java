@@ -1,53 +1,219 @@
 package cits3001_2016s2;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
+  /**
+   * A tournament entrant: a way of making its agents, and its results.
+   * A competitor is either an agent class, made with its no argument constructor,
+   * or a parameterised variant, made by a factory from a parameter vector, so a field can hold many variants of one class.
+   * The name is the competitor's id, and should be unique in a field.
+   * Games credit each seat to the competitor that filled it, so variants of the same class keep separate results.
+   * */
   public class Competitor implements Comparable{
-    public Class agent;
+    /** the agent class, or null for a variant made by a factory */
+    public Class<? extends Agent> agent;
+    /** makes an agent from the parameters */
+    public Function<double[], Agent> factory;
+    /** the parameter vector, empty for an agent class */
+    public double[] params;
     public String name;
     public String authors;
     public int spyWins;
     public int spyPlays;
     public int resWins;
     public int resPlays;
+    // The call counters are added to by every game worker on every call, so they take no lock
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder callNanos = new LongAdder();
+    private final AtomicLong maxCallNanos = new AtomicLong();
+    private final LongAdder violations = new LongAdder();
+    private final CompetitorMetrics metrics;
 
     public Competitor(Agent agent, String name, String authors){
-      this.agent = agent.getClass();
+      this(agent.getClass(), name, authors);
+    }
+
+    public Competitor(Class<? extends Agent> agent, String name, String authors){
+      this.agent = agent;
+      this.factory = p -> {
+        try{return agent.newInstance();}
+        catch(Throwable t){return null;}
+      };
+      this.params = new double[0];
       this.name = name;
       this.authors = authors;
+      this.metrics = TournamentMetrics.get().competitor(name);
+    }
+
+    /**
+     * Creates a parameterised variant.
+     * @param id the variant's name, unique in the field
+     * @param authors the authors
+     * @param factory makes an agent from the parameters, e.g. HeuristicAgent::new
+     * @param params the parameter vector
+     * */
+    public Competitor(String id, String authors, Function<double[], Agent> factory, double... params){
+      this.factory = factory;
+      this.params = params.clone();
+      this.name = id;
+      this.authors = authors;
+      this.metrics = TournamentMetrics.get().competitor(id);
     }
 
+    /**
+     * A fresh record of the same competitor, with no results.
+     * @return a competitor with the same agent class or factory, parameters, name and authors
+     * */
+    public Competitor copy(){
+      Competitor c = new Competitor(name, authors, factory, params);
+      c.agent = agent;
+      return c;
+    }
+
+    /**
+     * Orders competitors by win rate, those yet to play first.
+     * Compares the win rates exactly, so the order stays consistent in large fields of close competitors.
+     * @param o the competitor to compare to
+     * @return negative, zero or positive as this competitor's win rate is lower than, equal to or higher than o's
+     * */
     public int compareTo(Object o){
       try{
         Competitor c = (Competitor) o;
-        return (int)(1000*(this.winRate()-c.winRate()));
+        return Double.compare(this.rankRate(), c.rankRate());
       }
       catch(Exception e){return 1;}
     }
 
+    /**
+     * The win rate for ranking.
+     * @return the win rate, or -1 before the competitor has played
+     * */
+    private double rankRate(){
+      return spyPlays+resPlays==0?-1:winRate();
+    }
+
+    /**
+     * Makes a new agent for a game.
+     * Anything thrown while making it, including an Error such as an ExceptionInInitializerError from the agent class's static initializer,
+     * means there is no agent, which the game counts as a strike and fills with a RandomAgent.
+     * @return the agent, or null if it could not be made
+     * */
     public Agent getAgent(){
-     try{return (Agent)agent.newInstance();}
-     catch(Exception e){return null;}
+     try{return factory.apply(params);}
+     catch(Throwable t){return null;}
+    }
+
+    /**
+     * The parameters as text, as written to checkpoints.
+     * @return the parameter vector, e.g. [0.1, 0.2]
+     * */
+    public String paramString(){
+      return Arrays.toString(params);
     }
 
     public String getName(){return name;}
 
     public String getAuthors(){return authors;}
 
-    public void spyWin(){
+    public synchronized void spyWin(){
       spyWins++;spyPlays++;
     }
 
-    public void spyLoss(){
+    public synchronized void spyLoss(){
       spyPlays++;
     }
 
-    public void resWin(){
+    public synchronized void resWin(){
       resWins++;resPlays++;
     }
 
-    public void resLoss(){
+    public synchronized void resLoss(){
       resPlays++;
     }
+
+    /**
+     * Records the duration of a single call to one of this competitor's agents.
+     * @param nanos the time the call took, in nanoseconds
+     * @param violation true if the call exceeded its time limit
+     * */
+    public void call(long nanos, boolean violation){
+      calls.increment();
+      callNanos.add(nanos);
+      if(nanos>maxCallNanos.get()) maxCallNanos.accumulateAndGet(nanos, Math::max);
+      if(violation) violations.increment();
+      metrics.call(nanos, violation);
+    }
+
+    /**
+     * Records an exception thrown by one of this competitor's agents.
+     * */
+    public void exception(){
+      metrics.exception();
+    }
+
+    /**
+     * Records a strike against one of this competitor's agents: a method that threw, returned null or ran over its time limit,
+     * or an agent that could not be made.
+     * */
+    public void strike(){
+      metrics.strike();
+    }
+
+    /**
+     * The live metrics of this competitor, shared by every record of it.
+     * @return the metrics published for the competitor's name, see TournamentMetrics
+     * */
+    public CompetitorMetrics metrics(){
+      return metrics;
+    }
+
+    /**
+     * Adds the counters and latency stats of another record of the same competitor to this one,
+     * e.g. the results of a tournament shard.
+     * @param c the record to merge in
+     * */
+    public synchronized void merge(Competitor c){
+      spyWins+=c.spyWins;
+      spyPlays+=c.spyPlays;
+      resWins+=c.resWins;
+      resPlays+=c.resPlays;
+      calls.add(c.calls.sum());
+      callNanos.add(c.callNanos.sum());
+      maxCallNanos.accumulateAndGet(c.maxCallNanos.get(), Math::max);
+      violations.add(c.violations.sum());
+    }
+  
+    /**
+     * The counters and latency stats as one line of numbers, as written to shard results and checkpoints.
+     * @return the counters, separated by spaces
+     * */
+    public String counters(){
+      return spyWins+" "+spyPlays+" "+resWins+" "+resPlays+" "+calls.sum()+" "+callNanos.sum()+" "+maxCallNanos.get()+" "+violations.sum();
+    }
+
+    /**
+     * Sets the counters and latency stats from a line written by counters().
+     * @param line the counters, separated by spaces
+     * @throws RuntimeException if the line is not a set of counters
+     * */
+    public void setCounters(String line){
+      String[] f = line.trim().split(" ");
+      if(f.length!=8) throw new RuntimeException("Not a set of counters: "+line);
+      spyWins = Integer.parseInt(f[0]);
+      spyPlays = Integer.parseInt(f[1]);
+      resWins = Integer.parseInt(f[2]);
+      resPlays = Integer.parseInt(f[3]);
+      calls.reset();
+      calls.add(Long.parseLong(f[4]));
+      callNanos.reset();
+      callNanos.add(Long.parseLong(f[5]));
+      maxCallNanos.set(Long.parseLong(f[6]));
+      violations.reset();
+      violations.add(Long.parseLong(f[7]));
+    }
   
     public double spyWinRate(){
       return (1.0*spyWins)/spyPlays;
@@ -61,6 +227,23 @@ package cits3001_2016s2;
       return (1.0*(spyWins+resWins))/(spyPlays+resPlays);
     }
 
+    public double meanCallMillis(){
+      long n = calls.sum();
+      return n==0?0:callNanos.sum()/(1e6*n);
+    }
+
+    public long calls(){
+      return calls.sum();
+    }
+
+    public double maxCallMillis(){
+      return maxCallNanos.get()/1e6;
+    }
+
+    public long violations(){
+      return violations.sum();
+    }
+
     public String toString(){
       return "<tr><td>"+name+
         "</td><td>"+authors+
@@ -0,0 +1,104 @@
+package cits3001_2016s2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The live call metrics of one competitor, shared by every record of it (see Competitor.copy) and every game worker,
+ * and published as cits3001_2016s2:type=Competitor,name=<i>name</i> (see TournamentMetrics).
+ * Call times are counted in buckets of powers of two microseconds, so percentiles are read to within a factor of 2
+ * without keeping the times.
+ * */
+public class CompetitorMetrics implements CompetitorMetricsMBean{
+
+  // Bucket b counts the calls of under 2^b microseconds, and at least 2^(b-1)
+  private static final int BUCKETS = 40;
+
+  private final String name;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder callNanos = new LongAdder();
+  private final AtomicLong maxCallNanos = new AtomicLong();
+  private final LongAdder violations = new LongAdder();
+  private final LongAdder exceptions = new LongAdder();
+  private final LongAdder strikes = new LongAdder();
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+  /**
+   * Creates the metrics of a competitor, with nothing counted.
+   * @param name the competitor's name
+   * */
+  CompetitorMetrics(String name){
+    this.name = name;
+    for(int b = 0; b<BUCKETS; b++) buckets[b] = new LongAdder();
+  }
+
+  /**
+   * Counts a call to one of the competitor's agents.
+   * @param nanos the time the call took, in nanoseconds
+   * @param violation true if the call exceeded its time limit
+   * */
+  public void call(long nanos, boolean violation){
+    calls.increment();
+    callNanos.add(nanos);
+    if(nanos>maxCallNanos.get()) maxCallNanos.accumulateAndGet(nanos, Math::max);
+    if(violation) violations.increment();
+    buckets[Math.min(BUCKETS-1, 64-Long.numberOfLeadingZeros(Math.max(0, nanos)/1000))].increment();
+  }
+
+  /**
+   * Counts an exception thrown by one of the competitor's agents.
+   * */
+  public void exception(){
+    exceptions.increment();
+  }
+
+  /**
+   * Counts a strike against one of the competitor's agents, see Game.strike.
+   * */
+  public void strike(){
+    strikes.increment();
+  }
+
+  public String getName(){return name;}
+
+  public long getCalls(){return calls.sum();}
+
+  public double getMeanCallMillis(){
+    long n = calls.sum();
+    return n==0?0:callNanos.sum()/(1e6*n);
+  }
+
+  public double getMaxCallMillis(){return maxCallNanos.get()/1e6;}
+
+  public double getCallMillisP50(){return percentile(0.5);}
+
+  public double getCallMillisP99(){return percentile(0.99);}
+
+  public long getViolations(){return violations.sum();}
+
+  public long getExceptions(){return exceptions.sum();}
+
+  public long getStrikes(){return strikes.sum();}
+
+  /**
+   * The upper end of the bucket holding a percentile of the call times.
+   * @param p the fraction of calls at or below the time
+   * @return the time, in milliseconds, or 0 before any call
+   * */
+  private double percentile(double p){
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for(int b = 0; b<BUCKETS; b++){
+      counts[b] = buckets[b].sum();
+      total += counts[b];
+    }
+    if(total==0) return 0;
+    long seen = 0;
+    for(int b = 0; b<BUCKETS; b++){
+      seen += counts[b];
+      if(seen>=p*total) return (1L<<b)/1000.0;
+    }
+    return (1L<<(BUCKETS-1))/1000.0;
+  }
+
+}
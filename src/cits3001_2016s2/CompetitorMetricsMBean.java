@@ -0,0 +1,35 @@
+package cits3001_2016s2;
+
+/**
+ * The management interface of one competitor's metrics, see CompetitorMetrics.
+ * */
+public interface CompetitorMetricsMBean{
+
+  /** @return the competitor's name */
+  public String getName();
+
+  /** @return the calls to the competitor's agents that were timed */
+  public long getCalls();
+
+  /** @return the mean time of a call, in milliseconds */
+  public double getMeanCallMillis();
+
+  /** @return the longest call, in milliseconds */
+  public double getMaxCallMillis();
+
+  /** @return the median time of a call, in milliseconds, to within a factor of 2 */
+  public double getCallMillisP50();
+
+  /** @return the 99th percentile time of a call, in milliseconds, to within a factor of 2 */
+  public double getCallMillisP99();
+
+  /** @return the calls that exceeded their time limit */
+  public long getViolations();
+
+  /** @return the exceptions thrown by the competitor's agents */
+  public long getExceptions();
+
+  /** @return the strikes against the competitor's agents: exceptions, nulls, timeouts and agents that could not be made */
+  public long getStrikes();
+
+}
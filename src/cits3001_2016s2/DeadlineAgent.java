@@ -0,0 +1,17 @@
+package cits3001_2016s2;
+
+/**
+ * An optional extension of the Agent interface, for agents that want to know how long they have to act.
+ * Just before each of the agent's do_ methods the game tells it the time the method must return by,
+ * so an agent can spend what it has of the time limit rather than a fixed amount of work (see Anytime).
+ * The deadline is the time limit counted from when the game started timing the call, and the call to get_Deadline is timed as part of the do_ method.
+ * **/
+public interface DeadlineAgent extends Agent{
+
+  /**
+   * Reports when the do_ method about to be called must return.
+   * @param deadline the latest System.nanoTime() at which the do_ method may return without exceeding its time limit
+   * */
+  public void get_Deadline(long deadline);
+
+}
@@ -0,0 +1,23 @@
+package cits3001_2016s2;
+
+/**
+ * The lineup of a single tournament game: which competitor sits in each seat, and which seats are spies.
+ * */
+public class Deal{
+
+  /** seats[i] is the index of the competitor in the i-th seat, named Teams.seatName(i) */
+  public final int[] seats;
+  /** a bit mask of the spy seats, or 0 to let the game allocate spies at random */
+  public final long spies;
+
+  /**
+   * Creates a deal.
+   * @param seats the index of the competitor in each seat
+   * @param spies a bit mask of the spy seats, or 0 to let the game allocate spies at random
+   * */
+  public Deal(int[] seats, long spies){
+    this.seats = seats;
+    this.spies = spies;
+  }
+
+}
@@ -0,0 +1,227 @@
+package cits3001_2016s2;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a duplicate tournament, as in duplicate bridge, to take the luck of the deal out of the results.
+ * Each deal fixes the game seed, the number of seats and the spy seats, and so the leader order too,
+ * since a game set up with given spies draws nothing from its seed before the first leader.
+ * The deal is replayed once for every distinct rotation of its lineup round the table, so every competitor at the deal sits in every seat, and every role, equally often.
+ * A competitor's score at a deal is the fraction of its seats that won over all the rotations,
+ * and its duplicate score is the mean over deals of its score less the mean score of the other competitors at the same deal,
+ * each deal weighted by the seats the competitor played in it.
+ * A good or bad deal, or a deal that makes the competitor a spy more often than its share, lifts or sinks everyone at it alike, so these paired differences take out deal luck.
+ * They do not take out the luck of who sits next to whom, which for the agents here is most of the noise in a win rate.
+ * The rotations of a deal are played in parallel. Replays write no log files.
+ * */
+public class DuplicateTournament{
+
+  private final Competitor[] agents;
+  private final int[] deals;
+  //sums over the deals each competitor played of w, w*x, w*w, w*w*x and w*w*x*x, for paired difference x and weight w the seats played
+  private final double[] sumW, sumWX, sumW2, sumW2X, sumW2X2;
+
+  /**
+   * Creates an unplayed duplicate tournament.
+   * @param agents the competitors
+   * */
+  public DuplicateTournament(Competitor[] agents){
+    this.agents = agents.clone();
+    deals = new int[agents.length];
+    sumW = new double[agents.length];
+    sumWX = new double[agents.length];
+    sumW2 = new double[agents.length];
+    sumW2X = new double[agents.length];
+    sumW2X2 = new double[agents.length];
+  }
+
+  /**
+   * Runs a duplicate tournament on all available processors.
+   * @param agents the competitors
+   * @param deals the number of deals, each played once per distinct rotation
+   * @param seed the tournament seed
+   * @return an html table of the results
+   * */
+  public static String tournament(Competitor[] agents, int deals, long seed){
+    DuplicateTournament t = new DuplicateTournament(agents);
+    t.play(deals, seed, Runtime.getRuntime().availableProcessors());
+    return t.report();
+  }
+
+  /**
+   * Generates a deal of the tournament.
+   * At least one of every competitor sits at the table if there are enough seats, and otherwise as many different competitors as there are seats.
+   * Any seats left over go to competitors drawn at random.
+   * @param numAgents the number of competitors
+   * @param seed the tournament seed
+   * @param deal the deal number
+   * @return the lineup of the first rotation and the spy seats
+   * */
+  public static Deal deal(int numAgents, long seed, int deal){
+    Random tRand = new Random(Game.roundSeed(seed, deal));
+    int n = 5+tRand.nextInt(6);
+    long spies = 0;
+    while(Long.bitCount(spies)<Game.spyNum(n)) spies |= 1L<<tRand.nextInt(n);
+    int[] order = new int[numAgents];
+    for(int i = 0; i<numAgents; i++) order[i] = i;
+    for(int i = numAgents-1; i>0; i--){
+      int k = tRand.nextInt(i+1);
+      int t = order[i]; order[i] = order[k]; order[k] = t;
+    }
+    int[] seats = new int[n];
+    for(int i = 0; i<n; i++) seats[i] = i<numAgents?order[i]:tRand.nextInt(numAgents);
+    for(int i = n-1; i>0; i--){
+      int k = tRand.nextInt(i+1);
+      int t = seats[i]; seats[i] = seats[k]; seats[k] = t;
+    }
+    return new Deal(seats, spies);
+  }
+
+  /**
+   * Plays the deals, each in all its rotations, recording every game against the competitors.
+   * @param numDeals the number of deals
+   * @param seed the tournament seed
+   * @param threads the number of threads to play the rotations of a deal on
+   * */
+  public void play(int numDeals, long seed, int threads){
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try{
+      for(int d = 0; d<numDeals; d++){
+        Deal deal = deal(agents.length, seed, d);
+        long gameSeed = new Random(Game.roundSeed(~seed, d)).nextLong();
+        int n = deal.seats.length;
+        int period = period(deal.seats);
+        List<Future<Integer>> rotations = new ArrayList<Future<Integer>>();
+        TournamentMetrics.get().scheduled(period);
+        for(int r = 0; r<period; r++){
+          Deal rotated = rotate(deal, r);
+          rotations.add(pool.submit(new Callable<Integer>(){
+            public Integer call(){return Game.playDeal(agents, rotated, gameSeed, null, false);}
+          }));
+        }
+        double[] wins = new double[agents.length];
+        int[] plays = new int[agents.length];
+        for(int r = 0; r<period; r++){
+          boolean spiesWon = rotations.get(r).get()>2;
+          for(int i = 0; i<n; i++){
+            int a = deal.seats[(i+r)%n];
+            if(spiesWon==((deal.spies & 1L<<i)!=0)) wins[a]++;
+            plays[a]++;
+          }
+        }
+        score(wins, plays);
+      }
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+    catch(ExecutionException e){
+      throw new RuntimeException("A duplicate game failed", e.getCause());
+    }
+    finally{
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * The number of distinct rotations of a lineup.
+   * A lineup that repeats every p seats gives the same game at rotations p apart, and its first p rotations already sit every competitor in every seat equally often.
+   * @param seats the lineup
+   * @return the smallest p that rotates the lineup onto itself
+   * */
+  private static int period(int[] seats){
+    int n = seats.length;
+    for(int p = 1; p<n; p++){
+      if(n%p!=0) continue;
+      boolean repeats = true;
+      for(int i = 0; i<n && repeats; i++) repeats = seats[i]==seats[(i+p)%n];
+      if(repeats) return p;
+    }
+    return n;
+  }
+
+  /**
+   * A rotation of a deal: the lineup moved r seats round the table, with the spy seats where they were.
+   * @param deal the deal
+   * @param r the number of seats to move each competitor
+   * @return the rotated deal
+   * */
+  public static Deal rotate(Deal deal, int r){
+    int n = deal.seats.length;
+    int[] seats = new int[n];
+    for(int i = 0; i<n; i++) seats[i] = deal.seats[(i+r)%n];
+    return new Deal(seats, deal.spies);
+  }
+
+  /**
+   * Adds a deal's paired differences to the competitors at it.
+   * @param wins the seats each competitor won over all rotations of the deal
+   * @param plays the seats each competitor played over all rotations of the deal
+   * */
+  private void score(double[] wins, int[] plays){
+    double total = 0;
+    int present = 0;
+    for(int a = 0; a<agents.length; a++){
+      if(plays[a]==0) continue;
+      total += wins[a]/plays[a];
+      present++;
+    }
+    if(present<2) return;
+    for(int a = 0; a<agents.length; a++){
+      if(plays[a]==0) continue;
+      double own = wins[a]/plays[a];
+      double diff = own-(total-own)/(present-1);
+      double w = plays[a];
+      deals[a]++;
+      sumW[a] += w;
+      sumWX[a] += w*diff;
+      sumW2[a] += w*w;
+      sumW2X[a] += w*w*diff;
+      sumW2X2[a] += w*w*diff*diff;
+    }
+  }
+
+  /**
+   * A competitor's duplicate score.
+   * @param agent the competitor's index
+   * @return the mean over its deals of its score less the mean score of the others at the deal, weighted by its seats at each deal
+   * */
+  public double score(int agent){
+    return sumW[agent]==0?0:sumWX[agent]/sumW[agent];
+  }
+
+  /**
+   * The standard error of a competitor's duplicate score, treating the deals as a sample and the score as a ratio of sums over them.
+   * @param agent the competitor's index
+   * @return the estimated standard error, or infinity before two deals
+   * */
+  public double standardError(int agent){
+    int d = deals[agent];
+    if(d<2) return Double.POSITIVE_INFINITY;
+    double e = score(agent);
+    double spread = sumW2X2[agent]-2*e*sumW2X[agent]+e*e*sumW2[agent];
+    return Math.sqrt(Math.max(0, spread)*d/(d-1))/sumW[agent];
+  }
+
+  /**
+   * Tabulates the results, best duplicate score first.
+   * @return an html table of each competitor's win counts, duplicate score and its 95% interval
+   * */
+  public String report(){
+    Integer[] order = new Integer[agents.length];
+    for(int i = 0; i<order.length; i++) order[i] = i;
+    Arrays.sort(order, new Comparator<Integer>(){
+      public int compare(Integer a, Integer b){return Double.compare(score(b), score(a));}
+    });
+    String ret =
+    "<html><body><table><tr><th>Name</th><th>Author</th><th>Spy Wins</th><th>Spy Plays</th><th>Res Wins</th><th>Res Plays</th><th>Win Rate</th><th>Deals</th><th>Duplicate Score</th></tr>";
+    for(int a: order){
+      Competitor c = agents[a];
+      ret += String.format("<tr><td>%s</td><td>%s</td><td>%d</td><td>%d</td><td>%d</td><td>%d</td><td>%.3f</td><td>%d</td><td>%+.3f &plusmn; %.3f</td></tr>\n",
+        c.name, c.authors, c.spyWins, c.spyPlays, c.resWins, c.resPlays, c.winRate(), deals[a], score(a), 1.96*standardError(a));
+    }
+    return ret+"</table></body></html>";
+  }
+
+}
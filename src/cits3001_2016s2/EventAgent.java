@@ -0,0 +1,21 @@
+package cits3001_2016s2;
+
+import java.util.List;
+
+/**
+ * An optional extension of the Agent interface, for agents that read the game as a stream of typed events.
+ * The game publishes each step once, as a GameEvent, and hands an event agent everything published since it last looked,
+ * in a single call just before each of its do_ methods.
+ * Event agents are not sent get_ProposedMission, get_Votes, get_Mission, get_Traitors or accusations,
+ * since the events carry the same information. They are still sent get_status, which carries their name and the spies they know of.
+ * **/
+public interface EventAgent extends Agent{
+
+  /**
+   * Processes the events published since the last call, in the order they happened.
+   * @param events the new events, an unmodifiable copy the agent may keep
+   * @return within 100ms
+   * */
+  public void get_Events(List<GameEvent> events);
+
+}
@@ -4,26 +4,45 @@ package cits3001_2016s2;
 import java.util.*;
 import java.io.*;
 /**
- * A Class to represent a single game of resistance
+ * A Class to represent a single game of resistance.
+ * Players are kept in seat order, seat i being the player named Teams.seatName(i), and sets of players are long bit masks over the seats.
+ * Table sizes, spies and missions follow the game's Rules, up to Teams.MAX_SEATS players.
+ * Nothing is allocated as a round is played unless the game is logging or an EventAgent is seated,
+ * and a finished game can be reset and reused for the next (see pooled).
  * @author Tim French
  * */
 
 public class Game{
 
-  private Map<Character,Agent> players;
-  private Set<Character> spies;
+  private Agent[] players = new Agent[Teams.MAX_SEATS];
+  private Competitor[] owners = new Competitor[Teams.MAX_SEATS];
+  private int[] ignores = new int[Teams.MAX_SEATS];
+  private int[] eventCursor = new int[Teams.MAX_SEATS]; //-1 for players that are not event agents
+  private boolean[] deadlines = new boolean[Teams.MAX_SEATS]; //true for players that are deadline agents
+  private Ponderer[] ponderers = new Ponderer[Teams.MAX_SEATS]; //null for players that do not ponder
+  private long ponderBudget = Long.getLong("cits3001_2016s2.ponder.ms", 0);
+  private int[] strikes = new int[Teams.MAX_SEATS];
+  private int maxStrikes = Integer.getInteger("cits3001_2016s2.strikes", 3);
+  private boolean eventAgents = false;
+  private List<GameEvent> events = new ArrayList<GameEvent>();
+  private String[] accusations = new String[0];
+  private List<String> accusationView = Collections.emptyList(); //read-only view of accusations handed to batch agents
+  private long spies = 0;
   private String playerString = "";
   private String spyString = "";
   private String resString = "";
   private int numPlayers = 0;
-  private static final int[] spyNum = {2,2,3,3,3,4}; //spyNum[n-5] is the number of spies in an n player game
-  private static final int[][] missionNum = {{2,3,2,3,3},{2,3,4,3,4},{2,3,3,4,4},{3,4,4,5,5},{3,4,4,5,5},{3,4,4,5,5}};
-                                    //missionNum[n-5][i] is the number to send on mission i in a  in an n player game
-  private Random rand;
+  private Rules rules = Rules.STANDARD;
+  private static final ThreadLocal<Game> pool = new ThreadLocal<Game>();
+  private Random rand = new Random();
   private File logFile;
   private boolean logging = false;
+  private boolean echo = true;
   private boolean started = false;
   private long stopwatch = 0;
+  // The round and failed missions of the last status update, for a stand-in
+  private int statusRound = 0;
+  private int statusFails = 0;
 
 
   /**
@@ -31,7 +50,7 @@ public class Game{
    * Game log printed to stdout
    * */
   public Game(){
-    init();
+    reset(null, new Random().nextLong());
   }
 
   /**
@@ -39,21 +58,125 @@ public class Game{
    * @param fName path to the log file
    * */
   public Game(String fName){
-    logFile = new File(fName);
-    logging = true;
-    init();
+    reset(fName, new Random().nextLong());
   }
 
   /**
-   * Initializes the data structures for the game
+   * Creates an empty game with a fixed seed, so the spy allocation and leader order can be reproduced.
+   * @param fName path to the log file, or null to only log to stdout
+   * @param seed the seed for the game's random number generator
    * */
-  private void init(){
-    players = new HashMap<Character,Agent>();
-    spies = new HashSet<Character>();
-    rand = new Random();
-    long seed = rand.nextLong();
+  public Game(String fName, long seed){
+    reset(fName, seed);
+  }
+
+  /**
+   * Empties the game so it can be played again with new players. The stdout echo setting and the rules are kept.
+   * The log file is emptied, so it holds just this game, and a game played again (e.g. a round replayed after a checkpoint) is not logged twice.
+   * @param fName path to the log file, or null to only log to stdout
+   * @param seed the seed for the game's random number generator
+   * */
+  public void reset(String fName, long seed){
+    logFile = fName==null?null:new File(fName);
+    logging = fName!=null;
+    if(logging){
+      try{new FileWriter(logFile).close();}
+      catch(IOException e){e.printStackTrace();}
+    }
+    Arrays.fill(players, null);
+    Arrays.fill(owners, null);
+    Arrays.fill(ignores, 0);
+    Arrays.fill(eventCursor, -1);
+    Arrays.fill(deadlines, false);
+    Arrays.fill(strikes, 0);
+    closePonderers();
+    eventAgents = false;
+    events.clear();
+    spies = 0;
+    playerString = spyString = resString = "";
+    numPlayers = 0;
+    started = false;
+    statusRound = statusFails = 0;
     rand.setSeed(seed);
-    log("Seed: "+seed);
+    if(logs()) log("Seed: "+seed);
+  }
+
+  /**
+   * Creates an empty game with a fixed seed and the stdout echo set before anything is logged.
+   * @param fName path to the log file, or null to only log to stdout
+   * @param seed the seed for the game's random number generator
+   * @param echo false to keep the game log off stdout
+   * */
+  private Game(String fName, long seed, boolean echo){
+    this.echo = echo;
+    reset(fName, seed);
+  }
+
+  /**
+   * Returns this thread's reusable game, reset for a new game.
+   * A pooled game must be finished before the same thread asks for another.
+   * @param fName path to the log file, or null to only log to stdout
+   * @param seed the seed for the game's random number generator
+   * @param echo false to keep the game log off stdout
+   * @return the thread's game, empty
+   * */
+  public static Game pooled(String fName, long seed, boolean echo){
+    Game g = pool.get();
+    if(g==null){
+      g = new Game(fName, seed, echo);
+      pool.set(g);
+    }
+    else{
+      g.setEcho(echo);
+      g.reset(fName, seed);
+    }
+    return g;
+  }
+
+  /**
+   * Turns echoing of the game log to stdout on or off. The log file, if any, is still written.
+   * @param echo false to keep the game log off stdout
+   * */
+  public void setEcho(boolean echo){
+    this.echo = echo;
+  }
+
+  /**
+   * Sets the CPU time each pondering agent may spend pondering in a game, which must be done before any players are added.
+   * Pondering is off unless set, or unless the system property cits3001_2016s2.ponder.ms gives a budget,
+   * since handing control to and from ponder threads slows a game down.
+   * @param millis the budget per agent per game in milliseconds, or 0 for no pondering
+   * */
+  public void setPonderBudget(long millis){
+    if(numPlayers>0) throw new RuntimeException("Players already added");
+    ponderBudget = millis;
+  }
+
+  /**
+   * Sets how many strikes a player may take in a game before a RandomAgent takes their seat (see strike).
+   * The limit is 3 unless set, or unless the system property cits3001_2016s2.strikes gives another.
+   * @param strikes the number of strikes that puts a stand-in in the seat
+   * */
+  public void setMaxStrikes(int strikes){
+    if(strikes<1) throw new RuntimeException("Need at least one strike");
+    maxStrikes = strikes;
+  }
+
+  /**
+   * Sets the rules the game is played by, which must be done before any players are added.
+   * @param rules the table sizes, spies and missions to play with
+   * */
+  public void setRules(Rules rules){
+    if(numPlayers>0) throw new RuntimeException("Players already added");
+    this.rules = rules;
+  }
+
+  /**
+   * Checks whether log messages go anywhere, so they need not be built when they do not.
+   * @return true if the game is logging to a file or to stdout
+   * */
+  private boolean logs(){
+    return logging || echo;
   }
 
   /**
@@ -64,11 +187,11 @@ public class Game{
     if(logging){
       try{
         FileWriter log = new FileWriter(logFile, true);
-        log.write(msg);
+        log.write(msg+"\n");
         log.close();
       }catch(IOException e){e.printStackTrace();}
     }
-    System.out.println(msg);
+    if(echo) System.out.println(msg);
   }  
 
 
@@ -77,61 +200,250 @@ public class Game{
    * @param a the agent to be added
    * */
   public char addPlayer(Agent a){
-    if(numPlayers > 9) throw new RuntimeException("Too many players");
+    return addPlayer(a, null);
+  }
+
+  /**
+   * Adds a player to a game on behalf of a tournament competitor. 
+   * The time taken by the agent's method calls is recorded against the competitor.
+   * A missing agent (e.g. a competitor whose constructor failed) is a strike, and a RandomAgent plays the seat.
+   * @param a the agent to be added, or null
+   * @param owner the competitor the agent plays for, or null
+   * */
+  public char addPlayer(Agent a, Competitor owner){
+    if(numPlayers >= rules.maxPlayers()) throw new RuntimeException("Too many players");
     else if(started) throw new RuntimeException("Game already underway");
     else{
-      Character name = (char)(65+numPlayers++);
-      players.put(name, a);
-      log("Player "+name+" added.");
+      int seat = numPlayers++;
+      owners[seat] = owner;
+      if(a==null){
+        if(owner!=null) owner.strike();
+        if(logs()) log("Player "+Teams.seatName(seat)+" has no agent, so a RandomAgent stands in");
+        a = standIn();
+      }
+      seat(seat, a);
+      char name = Teams.seatName(seat);
+      if(logs()) log("Player "+name+" added.");
       return name;
     }
   }
 
+  /**
+   * Puts an agent in a seat, noting which optional interfaces it implements.
+   * @param seat the seat
+   * @param a the agent
+   * */
+  private void seat(int seat, Agent a){
+    players[seat] = a;
+    int ignored = a instanceof SelectiveAgent?((SelectiveAgent)a).ignores():0;
+    if(a instanceof EventAgent){
+      ignored |= SelectiveAgent.PROPOSALS | SelectiveAgent.VOTES | SelectiveAgent.MISSION | SelectiveAgent.TRAITORS | SelectiveAgent.ACCUSATIONS;
+      eventCursor[seat] = 0;
+      eventAgents = true;
+    }
+    ignores[seat] = ignored;
+    deadlines[seat] = a instanceof DeadlineAgent;
+    if(ponderBudget>0 && a instanceof PonderingAgent) ponderers[seat] = new Ponderer((PonderingAgent)a, Teams.seatName(seat), ponderBudget*1000000L);
+  }
+
+  /**
+   * Creates a RandomAgent to stand in for a player, drawing from the game's random number generator so a seeded game is reproduced with its stand-ins.
+   * @return the stand-in
+   * */
+  private RandomAgent standIn(){
+    return new RandomAgent(new Random(rand.nextLong()));
+  }
+
+  /**
+   * Records a strike against a player for a method that threw an exception, returned null or ran over its time limit.
+   * The game carries on with the method's default action (see Agent), and once the player has taken maxStrikes strikes
+   * in the game a RandomAgent takes the seat for the rest of it, playing for the same competitor.
+   * @param player the player's seat
+   * @param reason what the player did, for the log
+   * */
+  private void strike(int player, String reason){
+    if(owners[player]!=null) owners[player].strike();
+    if(logs()) log("Player: "+Teams.seatName(player)+". Strike "+(strikes[player]+1)+", "+reason);
+    if(++strikes[player]!=maxStrikes) return;
+    if(ponderers[player]!=null){
+      ponderers[player].close();
+      ponderers[player] = null;
+    }
+    eventCursor[player] = -1;
+    seat(player, standIn());
+    if(logs()) log("Player: "+Teams.seatName(player)+". A RandomAgent stands in");
+    if(spies!=0) players[player].get_status(Teams.name(player),playerString,isSpy(player)?spyString:resString,statusRound,statusFails);
+  }
+
+  /**
+   * Records a strike against a player for a method that threw an exception.
+   * @param player the player's seat
+   * @param t what the method threw
+   * */
+  private void fault(int player, Throwable t){
+    if(owners[player]!=null) owners[player].exception();
+    strike(player, "threw "+t);
+  }
+
   /**
    * Sets up the game and informs all players of their status.
    * This involves assigning players as spies according to the rules.
    */
   public void setup(){
-    if(numPlayers < 5) throw new RuntimeException("Too few players");
+    if(numPlayers < rules.minPlayers()) throw new RuntimeException("Too few players");
     else if(started) throw new RuntimeException("Game already underway");
     else{
-      for(int i = 0; i<spyNum[numPlayers-5]; i++){
-        char spy = ' ';
-        while(spy==' ' || spies.contains(spy)){
-          spy = (char)(65+rand.nextInt(numPlayers));
+      long spyMask = 0;
+      for(int i = 0; i<rules.spies(numPlayers); i++){
+        int spy = -1;
+        while(spy==-1 || (spyMask & 1L<<spy)!=0){
+          spy = rand.nextInt(numPlayers);
         }
-        spies.add(spy);
+        spyMask |= 1L<<spy;
+      }
+      setup(spyMask);
+    }
+  }
+
+  /**
+   * Sets up the game with the given spies and informs all players of their status.
+   * @param spyMask a bit mask of the spies, bit i set if the player added i-th (named Teams.seatName(i)) is a spy
+   */
+  public void setup(long spyMask){
+    if(numPlayers < rules.minPlayers()) throw new RuntimeException("Too few players");
+    else if(started) throw new RuntimeException("Game already underway");
+    else if(Long.bitCount(spyMask)!=rules.spies(numPlayers) || (spyMask & ~Teams.first(numPlayers))!=0) throw new RuntimeException("Wrong spies for "+numPlayers+" players");
+    else{
+      spies = spyMask;
+      playerString = Teams.of(Teams.first(numPlayers));
+      spyString = Teams.of(spyMask);
+      resString = Teams.unknown(Long.bitCount(spyMask));
+      if(accusations.length!=numPlayers){
+        accusations = new String[numPlayers];
+        accusationView = Collections.unmodifiableList(Arrays.asList(accusations));
       }
-      for(Character c: players.keySet())playerString+=c;
-      for(Character c: spies){spyString+=c; resString+='?';}
-      char[] pArr = playerString.toCharArray();
-      Arrays.sort(pArr);
-      playerString = new String(pArr);
-      char[] sArr = spyString.toCharArray();
-      Arrays.sort(sArr);
-      spyString = new String(sArr);
       statusUpdate(1,0);
       started= true;
-      log("Game set up. Spys allocated");
+      if(logs()) log("Game set up. Spys allocated");
     }
   }
 
+  /**
+   * Checks whether a player has declared that it ignores a get_ method.
+   * @param player the player's seat
+   * @param callback the SelectiveAgent flag of the get_ method
+   * @return true if the player ignores the method, so it need not be called
+   * */
+  private boolean ignores(int player, int callback){
+    return (ignores[player] & callback)!=0;
+  }
+
+  /**
+   * Checks whether a player is a spy.
+   * @param player the player's seat
+   * @return true if the player is a spy
+   * */
+  private boolean isSpy(int player){
+    return (spies & 1L<<player)!=0;
+  }
+
+  /**
+   * Publishes an event to the players that read the game as an event stream.
+   * @param e the event
+   * */
+  private void publish(GameEvent e){
+    if(eventAgents) events.add(e);
+  }
+
+  /**
+   * Hands an event agent the events published since it last looked. Called just before each of a player's do_ methods.
+   * @param player the seat of the player about to be asked for an action
+   * */
+  private void deliverEvents(int player){
+    int cursor = eventCursor[player];
+    if(cursor<0 || cursor==events.size()) return;
+    stopwatchOn(player);
+    try{((EventAgent)players[player]).get_Events(List.copyOf(events.subList(cursor, events.size())));}
+    catch(Throwable t){fault(player, t);}
+    stopwatchOff(100,player);
+    if(eventCursor[player]>=0) eventCursor[player] = events.size();
+  }
+
+  /**
+   * The number of spies in a game under the standard rules.
+   * @param numPlayers the number of players in the game
+   * @return the number of spies
+   * */
+  public static int spyNum(int numPlayers){
+    return Rules.STANDARD.spies(numPlayers);
+  }
+
+  /**
+   * The number of agents sent on a mission under the standard rules.
+   * @param numPlayers the number of players in the game
+   * @param mission the mission, from 1 to 5
+   * @return the size of the mission team
+   * */
+  public static int missionSize(int numPlayers, int mission){
+    return Rules.STANDARD.missionSize(numPlayers, mission);
+  }
+
   /** 
    * Starts a timer for Agent method calls
    * */
   private void stopwatchOn(){
-    stopwatch = System.currentTimeMillis();
+    stopwatch = System.nanoTime();
+  }
+
+  /**
+   * Starts the timer for one of a player's methods, and stops the player pondering.
+   * Waiting for the ponder to return is timed as part of the method.
+   * @param player the seat of the player about to be called
+   * */
+  private void stopwatchOn(int player){
+    stopwatchOn();
+    if(ponderers[player]!=null) ponderers[player].stop();
+  }
+
+  /**
+   * Starts the timer for one of a player's do_ methods, and tells a deadline agent when the method must return.
+   * @param limit the time limit of the method, in milliseconds
+   * @param player the seat of the player about to be asked for an action
+   * */
+  private void stopwatchOn(long limit, int player){
+    stopwatchOn(player);
+    if(!deadlines[player]) return;
+    try{((DeadlineAgent)players[player]).get_Deadline(stopwatch+limit*1000000L);}
+    catch(Throwable t){fault(player, t);}
   }
 
   /**
-   * Checks how if timelimit exceed and if so, logs a violation against a player.
+   * Checks how if timelimit exceed and if so, logs a violation against a player, which is also a strike.
    * @param limit the limit since stopwatch start, in milliseconds
-   * @param player the player who the violation will be recorded against.
+   * @param player the seat of the player who the violation will be recorded against.
+   * @return true if the player was within the limit, false if the result of a do_ method should be replaced by its default
    * */
-  private void stopwatchOff(long limit, Character player){
-    long delay = System.currentTimeMillis()-stopwatch;
-    if(delay>limit)
-      log("Player: "+player+". Time exceeded by "+delay);
+  private boolean stopwatchOff(long limit, int player){
+    long nanos = System.nanoTime()-stopwatch;
+    long delay = nanos/1000000;
+    if(delay>limit && logs())
+      log("Player: "+Teams.seatName(player)+". Time exceeded by "+delay);
+    Competitor owner = owners[player];
+    if(owner!=null) owner.call(nanos, delay>limit);
+    if(delay>limit) strike(player, "took "+delay+"ms");
+    if(started && ponderers[player]!=null) ponderers[player].start();
+    return delay<=limit;
+  }
+
+  /**
+   * Stops every player pondering for good.
+   * */
+  private void closePonderers(){
+    for(int c = 0; c<ponderers.length; c++){
+      if(ponderers[c]==null) continue;
+      ponderers[c].close();
+      ponderers[c] = null;
+    }
   }
 
   /**
@@ -141,13 +453,14 @@ public class Game{
    * @param fails the number of rounds failed
    **/
   private void statusUpdate(int round, int fails){
-    for(Character c: players.keySet()){
-      if(spies.contains(c)){
-        stopwatchOn(); players.get(c).get_status(""+c,playerString,spyString,round,fails); stopwatchOff(100,c);
-      }
-      else{ 
-        stopwatchOn(); players.get(c).get_status(""+c,playerString,resString,round,fails); stopwatchOff(100,c);
-      }
+    statusRound = round;
+    statusFails = fails;
+    if(eventAgents) publish(new GameEvent.StatusUpdate(round, fails));
+    for(int c = 0; c<numPlayers; c++){
+      stopwatchOn(c);
+      try{players[c].get_status(Teams.name(c),playerString,isSpy(c)?spyString:resString,round,fails);}
+      catch(Throwable t){fault(c, t);}
+      stopwatchOff(100,c);
     }
   }
 
@@ -155,26 +468,32 @@ public class Game{
    * This method picks a random leader for the next round and has them nominate a mission team.
    * If the leader does not pick a legitimate mission team (wrong number of agents, or agents that are not in the game) a default selection is given instead.
    * @param round the round in the game the mission is for.
+   * @param leader the seat of the leader
    * @return a String containing the names of the agents being sent on the mission
    * */
-  private String nominate(int round, Character leader){
-    int mNum = missionNum[numPlayers-5][round-1];
-    stopwatchOn(); String team = players.get(leader).do_Nominate(mNum); stopwatchOff(1000,leader);
-    char[] tA = team.toCharArray();
-    Arrays.sort(tA);
-    boolean legit = tA.length==mNum;
-    for(int i = 0; i<mNum && legit; i++){
-      if(!players.keySet().contains(tA[i])) legit = false;
-      if(i>0 && tA[i]==tA[i-1]) legit=false;
+  private String nominate(int round, int leader){
+    int mNum = rules.missionSize(numPlayers, round);
+    deliverEvents(leader);
+    stopwatchOn(1000,leader);
+    String team = null;
+    try{
+      team = players[leader].do_Nominate(mNum);
+      if(team==null) strike(leader, "nominated null");
     }
-    if(!legit){
-      team = "";
-      for(int i = 0; i< mNum; i++) team+=(char)(65+i);
-    }
-    for(Character c: players.keySet()){
-      stopwatchOn(); players.get(c).get_ProposedMission(leader+"", team); stopwatchOff(100, c);
+    catch(Throwable t){fault(leader, t);}
+    if(!stopwatchOff(1000,leader)) team = null;
+    long mask = team==null?-1:Teams.longMask(team);
+    boolean legit = mask!=-1 && Long.bitCount(mask)==mNum && (mask & ~Teams.first(numPlayers))==0;
+    team = Teams.of(legit?mask:Teams.first(mNum));
+    if(eventAgents) publish(new GameEvent.Proposal(Teams.seatName(leader), team));
+    for(int c = 0; c<numPlayers; c++){
+      if(ignores(c, SelectiveAgent.PROPOSALS)) continue;
+      stopwatchOn(c);
+      try{players[c].get_ProposedMission(Teams.name(leader), team);}
+      catch(Throwable t){fault(c, t);}
+      stopwatchOff(100,c);
     }
-    log(leader+" nominated "+team);
+    if(logs()) log(Teams.name(leader)+" nominated "+team);
     return team;
   }
 
@@ -185,21 +504,28 @@ public class Game{
    * */
   private boolean vote(){
    int votes = 0;
-   String yays = "";
-   for(Character c: players.keySet()){
-      stopwatchOn(); 
-      if(players.get(c).do_Vote()){
+   long yayMask = 0;
+   for(int c = 0; c<numPlayers; c++){
+      deliverEvents(c);
+      stopwatchOn(1000,c); 
+      boolean yay = false;
+      try{yay = players[c].do_Vote();}
+      catch(Throwable t){fault(c, t);}
+      if(stopwatchOff(1000,c) && yay){
         votes++;
-        yays+=c;
+        yayMask |= 1L<<c;
        }
-      stopwatchOff(1000,c);
     }
-    for(Character c: players.keySet()){
-      stopwatchOn();
-      players.get(c).get_Votes(yays);
+    String yays = Teams.of(yayMask);
+    if(eventAgents) publish(new GameEvent.VoteResult(yays, votes>numPlayers/2));
+    for(int c = 0; c<numPlayers; c++){
+      if(ignores(c, SelectiveAgent.VOTES)) continue;
+      stopwatchOn(c);
+      try{players[c].get_Votes(yays);}
+      catch(Throwable t){fault(c, t);}
       stopwatchOff(100,c);
     }
-    log(votes+" votes for: "+yays);
+    if(logs()) log(votes+" votes for: "+yays);
     return (votes>numPlayers/2);  
   }
 
@@ -212,23 +538,33 @@ public class Game{
    * @return the number of agents who betray the mission.
    * */
   public int mission(String team){
-    for(Character c: players.keySet()){
-      stopwatchOn();
-      players.get(c).get_Mission(team);
+    for(int c = 0; c<numPlayers; c++){
+      if(ignores(c, SelectiveAgent.MISSION)) continue;
+      stopwatchOn(c);
+      try{players[c].get_Mission(team);}
+      catch(Throwable t){fault(c, t);}
       stopwatchOff(100,c);
     }
     int traitors = 0;
-    for(Character c: team.toCharArray()){
-      stopwatchOn();
-      if(spies.contains(c) && players.get(c).do_Betray()) traitors++;
-      stopwatchOff(1000,c);
+    for(int i = 0; i<team.length(); i++){
+      int c = Teams.seat(team.charAt(i));
+      if(isSpy(c)){
+        deliverEvents(c);
+        stopwatchOn(1000,c);
+        boolean betray = false;
+        try{betray = players[c].do_Betray();}
+        catch(Throwable t){fault(c, t);}
+        if(stopwatchOff(1000,c) && betray) traitors++;
+      }
     }
-    for(Character c: players.keySet()){
-      stopwatchOn();
-      players.get(c).get_Traitors(traitors);
+    for(int c = 0; c<numPlayers; c++){
+      if(ignores(c, SelectiveAgent.TRAITORS)) continue;
+      stopwatchOn(c);
+      try{players[c].get_Traitors(traitors);}
+      catch(Throwable t){fault(c, t);}
       stopwatchOff(100,c);
     }
-    log(traitors +(traitors==1?" spy ":" spies ")+ "betrayed the mission");
+    if(logs()) log(traitors +(traitors==1?" spy ":" spies ")+ "betrayed the mission");
     return traitors;  
   }
 
@@ -241,74 +577,213 @@ public class Game{
     int fails = 0;
     int leader = (rand.nextInt(numPlayers));
     for(int round = 1; round<=5; round++){
-      String team = nominate(round, playerString.charAt(leader++%numPlayers));
+      String team = nominate(round, leader++%numPlayers);
       leader%=numPlayers;
       int voteRnd = 0;
       while(voteRnd++<5 && !vote())
-        team = nominate(round, playerString.charAt(leader++%numPlayers));
-      log(team+" elected");
+        team = nominate(round, leader++%numPlayers);
+      if(logs()) log(team+" elected");
       int traitors = mission(team);
-      if(traitors !=0 && (traitors !=1 || round !=4 || numPlayers<7)){
+      boolean failed = traitors >= rules.failsNeeded(numPlayers, round);
+      if(eventAgents) publish(new GameEvent.MissionResult(team, traitors, failed));
+      if(failed){
         fails++;
-        log("Mission failed");
+        if(logs()) log("Mission failed");
       }
-      else log("Mission succeeded");
+      else if(logs()) log("Mission succeeded");
       statusUpdate(round+1, fails);
-      HashMap<Character,String> accusations = new HashMap<Character, String>();
-      for(Character c: players.keySet()){
-        stopwatchOn();
-        accusations.put(c,players.get(c).do_Accuse());
-        stopwatchOff(1000,c);
+      for(int c = 0; c<numPlayers; c++){
+        deliverEvents(c);
+        stopwatchOn(1000,c);
+        String accused = null;
+        try{
+          accused = players[c].do_Accuse();
+          if(accused==null) strike(c, "accused null");
+        }
+        catch(Throwable t){fault(c, t);}
+        accusations[c] = stopwatchOff(1000,c) && accused!=null?accused:"";
+      }
+      for(int c = 0; c<numPlayers; c++){
+        if(logs()) log(Teams.name(c)+" accuses "+accusations[c]);
+        if(eventAgents) publish(new GameEvent.Accusation(Teams.seatName(c), accusations[c]));
       }
-      for(Character c: players.keySet()){
-        log(c+" accuses "+accusations.get(c));
-        for(Character a: players.keySet()){
-          stopwatchOn();
-          players.get(a).get_Accusation(c+"", accusations.get(c));
-          stopwatchOff(100,c);
+      for(int a = 0; a<numPlayers; a++){
+        if(ignores(a, SelectiveAgent.ACCUSATIONS)) continue;
+        if(players[a] instanceof AccusationBatchAgent){
+          stopwatchOn(a);
+          try{((AccusationBatchAgent)players[a]).get_Accusations(playerString, accusationView);}
+          catch(Throwable t){fault(a, t);}
+          stopwatchOff(100,a);
+        }
+        else{
+          for(int c = 0; c<numPlayers; c++){
+            stopwatchOn(a);
+            try{players[a].get_Accusation(Teams.name(c), accusations[c]);}
+            catch(Throwable t){fault(a, t);}
+            stopwatchOff(100,a);
+          }
         }
       }  
     }
-    if(fails>2) log("Government Wins! "+fails+" missions failed.");
-    else log("Resistance Wins! "+fails+" missions failed.");
-    log("The Government Spies were "+spyString+".");
+    if(logs()){
+      if(fails>2) log("Government Wins! "+fails+" missions failed.");
+      else log("Resistance Wins! "+fails+" missions failed.");
+      log("The Government Spies were "+spyString+".");
+    }
+    closePonderers();
     return fails;
   }
 
 
 
 
+  /**
+   * Runs a tournament of randomly drawn games between the competitors.
+   * @param agents the competitors
+   * @param rounds the number of games to play
+   * @return an html table of the results
+   * */
   public static String tournament(Competitor[] agents, int rounds){
-    Random tRand = new Random();
-    for(int round = 0; round<rounds; round++){
-      Game g = new Game("Round"+round+".txt");
-      int playerNum = 5+tRand.nextInt(6);
-      for(int i = 0; i<playerNum; i++){
-        int index = tRand.nextInt(agents.length);
-        g.stopwatchOn();char name = g.addPlayer(agents[index].getAgent());g.stopwatchOff(1000,name);
-        g.log("Player "+ agents[index].getName()+" from "+agents[index].getAuthors()+" is "+name);
+    return tournament(agents, rounds, new Random().nextLong());
+  }
+
+  /**
+   * Runs a seeded tournament of randomly drawn games between the competitors.
+   * The same seed always draws the same games, so a tournament can be split into shards by round.
+   * @param agents the competitors
+   * @param rounds the number of games to play
+   * @param seed the tournament seed
+   * @return an html table of the results
+   * */
+  public static String tournament(Competitor[] agents, int rounds, long seed){
+    TournamentMetrics.get().scheduled(rounds);
+    playRounds(agents, seed, 0, rounds, true);
+    return report(agents);
+  }
+
+  /**
+   * Plays the rounds from (inclusive) to (exclusive) of a seeded tournament, recording the results against the competitors.
+   * @param agents the competitors
+   * @param seed the tournament seed
+   * @param from the first round to play
+   * @param to the round to stop at
+   * @param echo false to keep the game logs off stdout
+   * */
+  public static void playRounds(Competitor[] agents, long seed, int from, int to, boolean echo){
+    playRounds(agents, seed, from, to, echo, null);
+  }
+
+  /**
+   * Plays the rounds from (inclusive) to (exclusive) of a seeded tournament, recording the results against the competitors
+   * and feeding each finished game to a rating engine.
+   * @param agents the competitors
+   * @param seed the tournament seed
+   * @param from the first round to play
+   * @param to the round to stop at
+   * @param echo false to keep the game logs off stdout
+   * @param ratings the rating engine for the competitors, or null
+   * */
+  public static void playRounds(Competitor[] agents, long seed, int from, int to, boolean echo, RatingEngine ratings){
+    for(int round = from; round<to; round++){
+      Random tRand = new Random(roundSeed(seed, round));
+      long gameSeed = tRand.nextLong();
+      int[] seats = new int[5+tRand.nextInt(6)];
+      for(int i = 0; i<seats.length; i++) seats[i] = tRand.nextInt(agents.length);
+      playDeal(agents, new Deal(seats, 0), gameSeed, "Round"+round+".txt", echo, ratings);
+    }
+  }
+
+  /**
+   * Plays one tournament game and records the result against the competitors.
+   * @param agents the competitors
+   * @param deal the competitor in each seat, and the spies
+   * @param seed the seed for the game
+   * @param round the round number, used to name the log file
+   * @param echo false to keep the game log off stdout
+   * @return the number of failed missions
+   * */
+  public static int playDeal(Competitor[] agents, Deal deal, long seed, int round, boolean echo){
+    return playDeal(agents, deal, seed, "Round"+round+".txt", echo);
+  }
+
+  /**
+   * Plays one tournament game and records the result against the competitors.
+   * @param agents the competitors
+   * @param deal the competitor in each seat, and the spies
+   * @param seed the seed for the game
+   * @param fName path to the log file, or null to write no log file
+   * @param echo false to keep the game log off stdout
+   * @return the number of failed missions
+   * */
+  public static int playDeal(Competitor[] agents, Deal deal, long seed, String fName, boolean echo){
+    return playDeal(agents, deal, seed, fName, echo, null);
+  }
+
+  /**
+   * Plays one tournament game, records the result against the competitors and feeds it to a rating engine.
+   * The game is counted in the TournamentMetrics.
+   * @param agents the competitors
+   * @param deal the competitor in each seat, and the spies
+   * @param seed the seed for the game
+   * @param fName path to the log file, or null to write no log file
+   * @param echo false to keep the game log off stdout
+   * @param ratings the rating engine for the competitors, or null
+   * @return the number of failed missions
+   * */
+  public static int playDeal(Competitor[] agents, Deal deal, long seed, String fName, boolean echo, RatingEngine ratings){
+    TournamentMetrics metrics = TournamentMetrics.get();
+    metrics.gameStarted();
+    Game g = pooled(fName, seed, echo);
+    int fails;
+    try{
+      for(int index: deal.seats){
+        g.stopwatchOn();char name = g.addPlayer(agents[index].getAgent(), agents[index]);g.stopwatchOff(1000,g.numPlayers-1);
+        if(g.logs()) g.log("Player "+ agents[index].getName()+" from "+agents[index].getAuthors()+" is "+name);
       }
-      g.setup();
-      int fails = g.play();
-      int i = 0;
-      char[] spies = g.spyString.toCharArray();
-      for(Character c: g.playerString.toCharArray()){
-        for(Competitor cc: agents){
-          if(cc.agent.isInstance(g.players.get(c))){
-            if(i<spies.length && c==spies[i]){
-              if (fails>2) cc.spyWin();
-              else cc.spyLoss();
-              i++;
-            }
-            else{
-              if(fails>2) cc.resLoss();
-              else cc.resWin();
-            }
-          g.log(cc.toString());
-          }  
-        }
-      }    
+      if(deal.spies==0) g.setup();
+      else g.setup(deal.spies);
+      fails = g.play();
+    }
+    catch(RuntimeException | Error e){
+      metrics.gameFailed();
+      throw e;
+    }
+    metrics.gameFinished();
+    for(int c = 0; c<g.numPlayers; c++){
+      Competitor cc = g.owners[c];
+      if(g.isSpy(c)){
+        if (fails>2) cc.spyWin();
+        else cc.spyLoss();
+      }
+      else{
+        if(fails>2) cc.resLoss();
+        else cc.resWin();
+      }
+      if(g.logs()) g.log(cc.toString());
     }
+    if(ratings!=null) ratings.record(deal.seats, g.spies, fails>2);
+    return fails;
+  }
+
+  /**
+   * Derives the seed of a single tournament round from the tournament seed, so rounds can be played in any order.
+   * @param seed the tournament seed
+   * @param round the round number
+   * @return the seed for the round
+   * */
+  public static long roundSeed(long seed, int round){
+    long z = seed + (round+1)*0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Ranks the competitors and tabulates their results.
+   * @param agents the competitors
+   * @return an html table of the results
+   * */
+  public static String report(Competitor[] agents){
     Arrays.sort(agents);
     String ret = 
     "<html><body><table><tr><th>Name</th><th>Author</th><th>Spy Wins</th><th>Spy Plays</th><th>Res Wins</th><th>Res Plays</th><th>Win Rate</th></tr>";
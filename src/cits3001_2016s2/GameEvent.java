@@ -0,0 +1,47 @@
+package cits3001_2016s2;
+
+/**
+ * A public event of a game of resistance, as published to EventAgents.
+ * Events are immutable and shared by all the players.
+ * Teams and votes are Strings of player names in alphabetical order.
+ * */
+public sealed interface GameEvent permits GameEvent.StatusUpdate, GameEvent.Proposal, GameEvent.VoteResult, GameEvent.MissionResult, GameEvent.Accusation{
+
+  /**
+   * The public part of a status update: the next mission and the number of failures so far.
+   * Each player's name and the spies it knows of are still reported by get_status.
+   * @param mission the next mission to be launched
+   * @param failures the number of failed missions
+   * */
+  public record StatusUpdate(int mission, int failures) implements GameEvent{}
+
+  /**
+   * A leader's nomination of a mission team.
+   * @param leader the leader who proposed the mission
+   * @param team the names of the agents nominated
+   * */
+  public record Proposal(char leader, String team) implements GameEvent{}
+
+  /**
+   * The votes on the last proposed mission.
+   * @param yays the names of the agents who voted for the mission
+   * @param approved true if a strict majority voted for the mission
+   * */
+  public record VoteResult(String yays, boolean approved) implements GameEvent{}
+
+  /**
+   * The outcome of a mission.
+   * @param team the names of the agents sent on the mission
+   * @param traitors the number of agents who betrayed the mission
+   * @param failed true if the mission failed
+   * */
+  public record MissionResult(String team, int traitors, boolean failed) implements GameEvent{}
+
+  /**
+   * An accusation made after a mission.
+   * @param accuser the name of the agent making the accusation
+   * @param accused the names of the agents being accused
+   * */
+  public record Accusation(char accuser, String accused) implements GameEvent{}
+
+}
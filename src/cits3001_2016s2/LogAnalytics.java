@@ -0,0 +1,484 @@
+package cits3001_2016s2;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aggregates behaviour statistics over the logs of past games, such as the Round*.txt files a tournament writes.
+ * The logs are scanned in parallel: each thread takes files from a shared list and counts them into tables of its own,
+ * and the tables are added together when the threads are done, so the results do not depend on the number of threads.
+ * Large files (logs of many games appended together) are memory mapped and read in place, in windows of up to MAP_WINDOW bytes
+ * that end on a line, since a single mapping cannot exceed 2GB. A single game log is a few kilobytes,
+ * so files under MAP_THRESHOLD are read into a buffer each thread reuses instead, as a mapping costs more than reading them
+ * and mappings are only released by the garbage collector, which a scan of a million files would outrun.
+ * A game is counted once its log reaches the names of the spies at the end, so logs cut short are left out, and counted as incomplete.
+ * A file that cannot be read, or fails part way through, is listed in the report with its error; the games before the failure are kept.
+ * The tables are
+ * betrayals by mission and by whether the leader is a spy on the team, as betrayals per spy on the team;
+ * votes by proposal number within the mission, as the proposals approved and the yes votes of spies and of resistance;
+ * leaders by table size and role, as the proposals approved and the missions sent that succeeded.
+ * */
+public class LogAnalytics{
+
+  // Files at least this large are memory mapped
+  private static final long MAP_THRESHOLD = 1<<20;
+  // The most of a file mapped at once
+  private static final long MAP_WINDOW = Integer.MAX_VALUE;
+  private static final int MISSIONS = 5;
+  private static final int VOTES = 5;
+  private static final int TABLE = Teams.MAX_SEATS+1;
+
+  private static final byte[] SEED = bytes("Seed: ");
+  private static final byte[] PLAYER = bytes("Player ");
+  private static final byte[] ADDED = bytes(" added.");
+  private static final byte[] NOMINATED = bytes(" nominated ");
+  private static final byte[] VOTES_FOR = bytes(" votes for: ");
+  private static final byte[] ELECTED = bytes(" elected");
+  private static final byte[] BETRAYED = bytes(" betrayed the mission");
+  private static final byte[] FAILED = bytes("Mission failed");
+  private static final byte[] SUCCEEDED = bytes("Mission succeeded");
+  private static final byte[] SPIES_WIN = bytes("Government Wins!");
+  private static final byte[] SPIES_WERE = bytes("The Government Spies were ");
+
+  // The counts, indexed as described in report
+  private final long[] games = new long[TABLE];
+  private final long[] spyWins = new long[TABLE];
+  private final long[][] betrayMissions = new long[MISSIONS][2];
+  private final long[][] betrayFailed = new long[MISSIONS][2];
+  private final long[][] betraySpies = new long[MISSIONS][2];
+  private final long[][] betrayals = new long[MISSIONS][2];
+  private final long[] proposals = new long[VOTES];
+  private final long[] approved = new long[VOTES];
+  private final long[][] votes = new long[VOTES][2];
+  private final long[][] yesVotes = new long[VOTES][2];
+  private final long[][] leaderProposals = new long[TABLE][2];
+  private final long[][] leaderApproved = new long[TABLE][2];
+  private final long[][] leaderMissions = new long[TABLE][2];
+  private final long[][] leaderSuccesses = new long[TABLE][2];
+  private long files = 0;
+  private long bytes = 0;
+  private long incomplete = 0;
+  private long malformed = 0;
+  private final List<String> failures = new ArrayList<String>();
+
+  /**
+   * Scans the logs in a directory.
+   * @param dir the directory
+   * @param glob the pattern of the log file names, e.g. Round*.txt
+   * @param threads the number of threads to scan on
+   * @return the tables of every game in the logs
+   * @throws IOException if the directory cannot be listed
+   * */
+  public static LogAnalytics scan(Path dir, String glob, int threads) throws IOException{
+    List<Path> logs = new ArrayList<Path>();
+    try(DirectoryStream<Path> listing = Files.newDirectoryStream(dir, glob)){
+      for(Path p: listing) logs.add(p);
+    }
+    return scan(logs, threads);
+  }
+
+  /**
+   * Scans log files. A file that cannot be read is listed in failures.
+   * @param logs the files
+   * @param threads the number of threads to scan on
+   * @return the tables of every game in the logs
+   * */
+  public static LogAnalytics scan(List<Path> logs, int threads){
+    if(threads<1) throw new RuntimeException("Need at least one thread");
+    AtomicInteger next = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<LogAnalytics>> workers = new ArrayList<Future<LogAnalytics>>();
+    for(int t = 0; t<threads; t++){
+      workers.add(pool.submit(new Callable<LogAnalytics>(){
+        public LogAnalytics call(){
+          Parser parser = new Parser();
+          for(int i = next.getAndIncrement(); i<logs.size(); i = next.getAndIncrement()) parser.read(logs.get(i));
+          return parser.tables;
+        }
+      }));
+    }
+    LogAnalytics total = new LogAnalytics();
+    try{
+      for(Future<LogAnalytics> f: workers) total.merge(f.get());
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+    catch(ExecutionException e){
+      throw new RuntimeException("A log scan failed", e.getCause());
+    }
+    finally{
+      pool.shutdownNow();
+    }
+    return total;
+  }
+
+  /**
+   * Adds the counts of other tables to these.
+   * @param o the tables to add
+   * */
+  public void merge(LogAnalytics o){
+    add(games, o.games);
+    add(spyWins, o.spyWins);
+    add(betrayMissions, o.betrayMissions);
+    add(betrayFailed, o.betrayFailed);
+    add(betraySpies, o.betraySpies);
+    add(betrayals, o.betrayals);
+    add(proposals, o.proposals);
+    add(approved, o.approved);
+    add(votes, o.votes);
+    add(yesVotes, o.yesVotes);
+    add(leaderProposals, o.leaderProposals);
+    add(leaderApproved, o.leaderApproved);
+    add(leaderMissions, o.leaderMissions);
+    add(leaderSuccesses, o.leaderSuccesses);
+    files += o.files;
+    bytes += o.bytes;
+    incomplete += o.incomplete;
+    malformed += o.malformed;
+    failures.addAll(o.failures);
+  }
+
+  private static void add(long[] a, long[] b){
+    for(int i = 0; i<a.length; i++) a[i] += b[i];
+  }
+
+  private static void add(long[][] a, long[][] b){
+    for(int i = 0; i<a.length; i++) add(a[i], b[i]);
+  }
+
+  /**
+   * The number of games counted.
+   * @return the games whose logs were complete
+   * */
+  public long games(){
+    long n = 0;
+    for(long g: games) n += g;
+    return n;
+  }
+
+  /**
+   * The files that could not be read, or failed part way through.
+   * @return each file and its error, sorted by file
+   * */
+  public List<String> failures(){
+    List<String> sorted = new ArrayList<String>(failures);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  /**
+   * The tables as text, headed by the games, files and bytes read, the games not counted and the files that failed.
+   * Betrayals: for each mission, and whether the leader is a spy on the team, the missions sent with spies on them,
+   * the fraction of those that failed, and the betrayals per spy on the team.
+   * Votes: for each proposal of a mission, the proposals voted on, the fraction approved, and the fraction of spy and of resistance votes that were yes.
+   * Leaders: for each table size, the games and the spies' win rate, then for resistance and spy leaders
+   * the proposals voted on, the fraction approved, the missions sent, and the fraction of those that succeeded.
+   * @return the tables
+   * */
+  public String report(){
+    StringBuilder sb = new StringBuilder();
+    sb.append(games()).append(" games in ").append(files).append(" files, ").append(bytes).append(" bytes\n");
+    if(incomplete>0) sb.append(incomplete).append(" games cut short, not counted\n");
+    if(malformed>0) sb.append(malformed).append(" games with a malformed list of spies, not counted\n");
+    if(!failures.isEmpty()) sb.append(failures.size()).append(" files failed:\n");
+    for(String f: failures()) sb.append("  ").append(f).append('\n');
+    sb.append('\n');
+    sb.append("Betrayals\nmission  leader      missions  failed  betrayals/spy\n");
+    for(int m = 0; m<MISSIONS; m++){
+      for(int r = 0; r<2; r++){
+        if(betrayMissions[m][r]==0) continue;
+        sb.append(String.format("%7d  %-10s %9d  %6.3f  %13.3f%n", m+1, r==1?"spy on":"other", betrayMissions[m][r],
+          ratio(betrayFailed[m][r], betrayMissions[m][r]), ratio(betrayals[m][r], betraySpies[m][r])));
+      }
+    }
+    sb.append("\nVotes\nproposal  proposals  approved  spy yes  resistance yes\n");
+    for(int p = 0; p<VOTES; p++){
+      if(proposals[p]==0) continue;
+      sb.append(String.format("%8d  %9d  %8.3f  %7.3f  %14.3f%n", p+1, proposals[p], ratio(approved[p], proposals[p]),
+        ratio(yesVotes[p][1], votes[p][1]), ratio(yesVotes[p][0], votes[p][0])));
+    }
+    sb.append("\nLeaders\nplayers  games  spy wins  res proposals  approved  missions  succeeded  spy proposals  approved  missions  succeeded\n");
+    for(int n = 0; n<TABLE; n++){
+      if(games[n]==0) continue;
+      sb.append(String.format("%7d  %5d  %8.3f", n, games[n], ratio(spyWins[n], games[n])));
+      for(int r = 0; r<2; r++){
+        sb.append(String.format("  %13d  %8.3f  %8d  %9.3f", leaderProposals[n][r], ratio(leaderApproved[n][r], leaderProposals[n][r]),
+          leaderMissions[n][r], ratio(leaderSuccesses[n][r], leaderMissions[n][r])));
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static double ratio(long a, long b){
+    return b==0?0:a/(double)b;
+  }
+
+  private static byte[] bytes(String s){
+    return s.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Reads logs into a thread's tables, a line at a time, keeping the game under way until the spies are named.
+   * */
+  private static class Parser{
+    final LogAnalytics tables = new LogAnalytics();
+    private ByteBuffer buffer = ByteBuffer.allocate(64*1024);
+    // The game being read
+    private boolean inGame;
+    private int players, mission, proposal;
+    private boolean spiesWon;
+    private int numProposals, numMissions;
+    private final int[] pMission = new int[MISSIONS*6];
+    private final int[] pNumber = new int[MISSIONS*6];
+    private final int[] pLeader = new int[MISSIONS*6];
+    private final long[] pYays = new long[MISSIONS*6];
+    private final boolean[] pVoted = new boolean[MISSIONS*6];
+    private final boolean[] pApproved = new boolean[MISSIONS*6];
+    private final int[] mMission = new int[MISSIONS];
+    private final int[] mLeader = new int[MISSIONS];
+    private final long[] mTeam = new long[MISSIONS];
+    private final int[] mTraitors = new int[MISSIONS];
+    private final boolean[] mFailed = new boolean[MISSIONS];
+
+    /**
+     * Reads a log file, mapping it a window at a time if it is large. A failure is recorded against the file.
+     * @param log the file
+     * */
+    void read(Path log){
+      inGame = false;
+      try(FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)){
+        long size = channel.size();
+        if(size>=MAP_THRESHOLD){
+          for(long position = 0; position<size;){
+            long length = Math.min(MAP_WINDOW, size-position);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int end = (int)length;
+            if(position+length<size){
+              while(end>0 && window.get(end-1)!='\n' && window.get(end-1)!='\r') end--;
+              if(end==0) throw new IOException("Line longer than "+MAP_WINDOW+" bytes at byte "+position);
+            }
+            parse(window, end);
+            position += end;
+          }
+        }
+        else{
+          if(buffer.capacity()<size) buffer = ByteBuffer.allocate((int)size);
+          buffer.clear();
+          while(buffer.position()<size && channel.read(buffer)>=0);
+          buffer.flip();
+          parse(buffer, buffer.limit());
+        }
+        if(inGame) tables.incomplete++;
+        tables.files++;
+        tables.bytes += size;
+      }
+      catch(IOException | RuntimeException e){
+        tables.failures.add(log+": "+e);
+      }
+    }
+
+    /**
+     * Counts the lines of a buffer.
+     * @param b the buffer
+     * @param limit the end of the last line
+     * */
+    private void parse(ByteBuffer b, int limit){
+      int start = 0;
+      for(int i = 0; i<limit; i++){
+        byte c = b.get(i);
+        if(c=='\n' || c=='\r'){
+          if(i>start) line(b, start, i);
+          start = i+1;
+        }
+      }
+      if(limit>start) line(b, start, limit);
+    }
+
+    /**
+     * Counts one line of a log, the line being bytes s (inclusive) to e (exclusive).
+     * */
+    private void line(ByteBuffer b, int s, int e){
+      if(starts(b, s, e, SEED)){
+        if(inGame) tables.incomplete++;
+        inGame = true;
+        players = numProposals = numMissions = proposal = 0;
+        mission = 1;
+        spiesWon = false;
+        return;
+      }
+      if(!inGame) return;
+      if(starts(b, s, e, PLAYER)){
+        if(ends(b, s, e, ADDED)) players++;
+        return;
+      }
+      if(starts(b, s, e, FAILED) || starts(b, s, e, SUCCEEDED)){
+        if(numMissions>0 && mMission[numMissions-1]==mission) mFailed[numMissions-1] = starts(b, s, e, FAILED);
+        mission++;
+        proposal = 0;
+        return;
+      }
+      if(starts(b, s, e, SPIES_WIN)){
+        spiesWon = true;
+        return;
+      }
+      if(starts(b, s, e, SPIES_WERE)){
+        long spies = mask(b, s+SPIES_WERE.length, e-1);
+        if(spies>=0) count(spies);
+        else tables.malformed++;
+        inGame = false;
+        return;
+      }
+      if(mission>MISSIONS) return;
+      int name = nameLength(b, s);
+      if(name>0 && at(b, s+name, e, NOMINATED)){
+        if(numProposals==pMission.length) return;
+        int p = numProposals++;
+        pMission[p] = mission;
+        pNumber[p] = proposal++;
+        pLeader[p] = Teams.seat(decode(b, s));
+        pVoted[p] = false;
+        return;
+      }
+      if(ends(b, s, e, ELECTED)){
+        if(numProposals==0 || numMissions==MISSIONS) return;
+        int m = numMissions++;
+        mMission[m] = mission;
+        mLeader[m] = pLeader[numProposals-1];
+        mTeam[m] = mask(b, s, e-ELECTED.length);
+        mTraitors[m] = 0;
+        mFailed[m] = false;
+        return;
+      }
+      int digits = 0;
+      while(s+digits<e && b.get(s+digits)>='0' && b.get(s+digits)<='9') digits++;
+      if(digits==0) return;
+      if(at(b, s+digits, e, VOTES_FOR)){
+        if(numProposals==0) return;
+        int p = numProposals-1;
+        pVoted[p] = true;
+        pApproved[p] = number(b, s, s+digits)>players/2;
+        pYays[p] = mask(b, s+digits+VOTES_FOR.length, e);
+      }
+      else if(ends(b, s, e, BETRAYED)){
+        if(numMissions>0) mTraitors[numMissions-1] = number(b, s, s+digits);
+      }
+    }
+
+    /**
+     * Adds the finished game to the tables.
+     * @param spies the mask of the spies
+     * */
+    private void count(long spies){
+      int n = players;
+      if(n<1 || n>=TABLE) return;
+      tables.games[n]++;
+      if(spiesWon) tables.spyWins[n]++;
+      for(int p = 0; p<numProposals; p++){
+        if(!pVoted[p] || pLeader[p]<0) continue;
+        int leaderSpy = (spies & 1L<<pLeader[p])!=0?1:0;
+        tables.leaderProposals[n][leaderSpy]++;
+        if(pApproved[p]) tables.leaderApproved[n][leaderSpy]++;
+        int number = pNumber[p];
+        if(number>=VOTES || pYays[p]<0) continue;
+        tables.proposals[number]++;
+        if(pApproved[p]) tables.approved[number]++;
+        long seats = Teams.first(n);
+        tables.votes[number][1] += Long.bitCount(seats & spies);
+        tables.votes[number][0] += Long.bitCount(seats & ~spies);
+        tables.yesVotes[number][1] += Long.bitCount(pYays[p] & spies);
+        tables.yesVotes[number][0] += Long.bitCount(pYays[p] & ~spies);
+      }
+      for(int m = 0; m<numMissions; m++){
+        if(mLeader[m]<0 || mTeam[m]<0) continue;
+        int leaderSpy = (spies & 1L<<mLeader[m])!=0?1:0;
+        tables.leaderMissions[n][leaderSpy]++;
+        if(!mFailed[m]) tables.leaderSuccesses[n][leaderSpy]++;
+        int spiesOnTeam = Long.bitCount(mTeam[m] & spies);
+        if(spiesOnTeam==0) continue;
+        int role = leaderSpy==1 && (mTeam[m] & 1L<<mLeader[m])!=0?1:0;
+        int i = mMission[m]-1;
+        tables.betrayMissions[i][role]++;
+        if(mFailed[m]) tables.betrayFailed[i][role]++;
+        tables.betraySpies[i][role] += spiesOnTeam;
+        tables.betrayals[i][role] += mTraitors[m];
+      }
+    }
+
+    private static boolean starts(ByteBuffer b, int s, int e, byte[] prefix){
+      return at(b, s, e, prefix);
+    }
+
+    private static boolean ends(ByteBuffer b, int s, int e, byte[] suffix){
+      return e-s>=suffix.length && at(b, e-suffix.length, e, suffix);
+    }
+
+    private static boolean at(ByteBuffer b, int i, int e, byte[] text){
+      if(e-i<text.length) return false;
+      for(int k = 0; k<text.length; k++)
+        if(b.get(i+k)!=text[k]) return false;
+      return true;
+    }
+
+    private static int number(ByteBuffer b, int s, int e){
+      int n = 0;
+      for(int i = s; i<e; i++) n = 10*n+b.get(i)-'0';
+      return n;
+    }
+
+    /**
+     * The length in bytes of the UTF-8 character at i, 1 or 2 for the characters that name seats, or 0 for any other lead byte.
+     * */
+    private static int nameLength(ByteBuffer b, int i){
+      int c = b.get(i)&0xff;
+      if(c<0x80) return 1;
+      return (c&0xe0)==0xc0?2:0;
+    }
+
+    private static char decode(ByteBuffer b, int i){
+      int c = b.get(i)&0xff;
+      if(c<0x80) return (char)c;
+      return (char)((c&0x1f)<<6 | b.get(i+1)&0x3f);
+    }
+
+    /**
+     * The seats named by the characters from s to e.
+     * @return the mask of the seats, or -1 if a character does not name a seat
+     * */
+    private static long mask(ByteBuffer b, int s, int e){
+      long mask = 0;
+      for(int i = s; i<e;){
+        int length = nameLength(b, i);
+        if(length==0 || i+length>e) return -1;
+        int seat = Teams.seat(decode(b, i));
+        if(seat<0) return -1;
+        mask |= 1L<<seat;
+        i += length;
+      }
+      return mask;
+    }
+  }
+
+  /**
+   * Scans a directory of game logs and prints the tables.
+   * @param args the directory (default the working directory), the pattern of the log file names (default Round*.txt)
+   * and the number of threads (default the number of processors). Exits with status 1 if any file failed
+   * */
+  public static void main(String[] args) throws IOException{
+    Path dir = Paths.get(args.length>0?args[0]:".");
+    String glob = args.length>1?args[1]:"Round*.txt";
+    int threads = args.length>2?Integer.parseInt(args[2]):Runtime.getRuntime().availableProcessors();
+    long start = System.nanoTime();
+    LogAnalytics tables = scan(dir, glob, threads);
+    System.out.print(tables.report());
+    System.out.println("\n"+(System.nanoTime()-start)/1000000+"ms");
+    if(!tables.failures.isEmpty()) System.exit(1);
+  }
+
+}
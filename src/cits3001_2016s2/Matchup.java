@@ -0,0 +1,251 @@
+package cits3001_2016s2;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Plays every pair of competitors against each other in controlled lineups, to show which agent exploits which.
+ * There are two matrices of cells, each played as its own seeded run of games at tables of 5 to 10 players:
+ * in a spies cell the row competitor fills every spy seat and the column competitor every resistance seat,
+ * and the cell holds the spies' win rate, one play per game;
+ * in a mixed cell the row and column competitors each fill half the table, the spies are dealt at random,
+ * and the cell holds the row competitor's win rate over its seats.
+ * Each cell gets a Wilson score interval on its win rate, and plays batches of games until the interval is narrower than asked or it reaches its most games,
+ * so lopsided matchups stop early and close ones get the games.
+ * All cells share one pool of worker threads, each cell with at most one batch in flight, so a cell's games and results do not depend on the scheduling.
+ * Every cell plays for its own copies of the competitors, whose counters are not shared with the competitors passed in.
+ * Seats of the row competitor in the same mixed game are counted as separate plays, so mixed intervals are a little optimistic.
+ * */
+public class Matchup{
+
+  private final Competitor[] agents;
+  private final Cell[][] spies;
+  private final Cell[][] mixed;
+  private double z = 1.96;
+
+  /**
+   * Creates an unplayed matchup matrix.
+   * @param agents the competitors
+   * */
+  public Matchup(Competitor[] agents){
+    this.agents = agents.clone();
+    int n = agents.length;
+    spies = new Cell[n][n];
+    mixed = new Cell[n][n];
+  }
+
+  /**
+   * Runs a matchup matrix and tabulates it.
+   * @param agents the competitors
+   * @param epsilon the half width of interval at which a cell stops
+   * @param batch the number of games a cell plays between checks
+   * @param maxGames the most games a cell plays if its interval never gets that narrow
+   * @param seed the matchup seed
+   * @return an html table of the spies and mixed matrices
+   * */
+  public static String tournament(Competitor[] agents, double epsilon, int batch, int maxGames, long seed){
+    Matchup m = new Matchup(agents);
+    m.play(epsilon, batch, maxGames, seed, Runtime.getRuntime().availableProcessors());
+    return m.html();
+  }
+
+  /**
+   * Sets the z score of the intervals, 1.96 (95%) unless changed. Takes effect at the next play.
+   * @param z the number of standard errors either side of the estimate
+   * */
+  public void setZ(double z){
+    this.z = z;
+  }
+
+  /**
+   * Plays every cell until it stops.
+   * @param epsilon the half width of interval at which a cell stops
+   * @param batch the number of games a cell plays between checks
+   * @param maxGames the most games a cell plays if its interval never gets that narrow
+   * @param seed the matchup seed. Each cell plays its own seeded games, whatever the number of threads.
+   * @param threads the number of worker threads
+   * */
+  public void play(double epsilon, int batch, int maxGames, long seed, int threads){
+    if(batch<1 || maxGames<1 || threads<1) throw new RuntimeException("Need at least one game and one thread");
+    int n = agents.length;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    CompletionService<Cell> done = new ExecutorCompletionService<Cell>(pool);
+    int running = 0;
+    try{
+      for(int i = 0; i<n; i++){
+        for(int j = 0; j<n; j++){
+          spies[i][j] = new Cell(i, j, false, Game.roundSeed(seed, 2*(i*n+j)), batch);
+          TournamentMetrics.get().scheduled(batch);
+          done.submit(spies[i][j]);
+          running++;
+          if(i==j) continue;
+          mixed[i][j] = new Cell(i, j, true, Game.roundSeed(seed, 2*(i*n+j)+1), batch);
+          TournamentMetrics.get().scheduled(batch);
+          done.submit(mixed[i][j]);
+          running++;
+        }
+      }
+      while(running>0){
+        Cell c = done.take().get();
+        running--;
+        if(c.games<maxGames && halfWidth(c)>epsilon){
+          c.batch = Math.min(batch, maxGames-c.games);
+          TournamentMetrics.get().scheduled(c.batch);
+          done.submit(c);
+          running++;
+        }
+      }
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+    catch(ExecutionException e){
+      throw new RuntimeException("A matchup game failed", e.getCause());
+    }
+    finally{
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * The spies matrix as comma separated values, followed by the mixed matrix, one line per cell.
+   * @return a header line and a line for each cell played
+   * */
+  public String csv(){
+    StringBuilder sb = new StringBuilder("kind,row,column,wins,plays,games,rate,low,high\n");
+    for(Cell[][] matrix: new Cell[][][]{spies, mixed}){
+      for(int i = 0; i<agents.length; i++){
+        for(int j = 0; j<agents.length; j++){
+          Cell c = matrix[i][j];
+          if(c==null) continue;
+          double h = halfWidth(c);
+          sb.append(c.mixed?"mixed":"spies").append(',').append(agents[i].name).append(',').append(agents[j].name).append(',')
+            .append(c.wins).append(',').append(c.plays).append(',').append(c.games).append(',')
+            .append(rate(c)).append(',').append(centre(c)-h).append(',').append(centre(c)+h).append('\n');
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The spies and mixed matrices as html tables, each cell showing the win rate, its interval and the games played.
+   * @return an html page of the two tables
+   * */
+  public String html(){
+    return "<html><body><p>Spy win rate of the row competitor against the column competitor as resistance</p>"+table(spies)
+      +"<p>Win rate of the row competitor sharing the table with the column competitor</p>"+table(mixed)+"</body></html>";
+  }
+
+  /**
+   * One matrix as an html table.
+   * @param matrix the spies or mixed cells
+   * @return the table
+   * */
+  private String table(Cell[][] matrix){
+    StringBuilder sb = new StringBuilder("<table><tr><th></th>");
+    for(Competitor c: agents) sb.append("<th>").append(c.name).append("</th>");
+    sb.append("</tr>\n");
+    for(int i = 0; i<agents.length; i++){
+      sb.append("<tr><th>").append(agents[i].name).append("</th>");
+      for(int j = 0; j<agents.length; j++){
+        Cell c = matrix[i][j];
+        if(c==null || c.plays==0) sb.append("<td></td>");
+        else{
+          double h = halfWidth(c);
+          sb.append(String.format("<td>%.3f [%.3f, %.3f] (%d games)</td>", rate(c), centre(c)-h, centre(c)+h, c.games));
+        }
+      }
+      sb.append("</tr>\n");
+    }
+    return sb.append("</table>").toString();
+  }
+
+  /**
+   * The win rate of a cell.
+   * @param c the cell
+   * @return wins over plays
+   * */
+  private static double rate(Cell c){
+    return c.plays==0?0:(1.0*c.wins)/c.plays;
+  }
+
+  /**
+   * The centre of a cell's Wilson score interval, which is pulled from the win rate towards a half.
+   * @param c the cell
+   * @return the centre of the interval
+   * */
+  private double centre(Cell c){
+    if(c.plays==0) return 0.5;
+    return (rate(c)+z*z/(2.0*c.plays))/(1+z*z/c.plays);
+  }
+
+  /**
+   * The half width of a cell's Wilson score interval.
+   * Unlike the normal approximation it does not shrink to nothing when a cell has won every game, or none.
+   * @param c the cell
+   * @return the half width, or 0.5 before any games are played
+   * */
+  private double halfWidth(Cell c){
+    if(c.plays==0) return 0.5;
+    double p = rate(c), n = c.plays;
+    return z/(1+z*z/n)*Math.sqrt(p*(1-p)/n+z*z/(4*n*n));
+  }
+
+  /**
+   * A cell of a matrix, which plays the next batch of its seeded games when called.
+   * */
+  private class Cell implements Callable<Cell>{
+    final int row, column;
+    final boolean mixed;
+    final long seed;
+    final Competitor[] lineup;
+    int batch;
+    int games = 0;
+    long wins = 0, plays = 0;
+
+    Cell(int row, int column, boolean mixed, long seed, int batch){
+      this.row = row;
+      this.column = column;
+      this.mixed = mixed;
+      this.seed = seed;
+      this.batch = batch;
+      lineup = new Competitor[]{agents[row].copy(), agents[column].copy()};
+    }
+
+    public Cell call(){
+      for(int end = games+batch; games<end; games++){
+        Random tRand = new Random(Game.roundSeed(seed, games));
+        long gameSeed = tRand.nextLong();
+        int n = 5+tRand.nextInt(6);
+        long spyMask = 0;
+        while(Long.bitCount(spyMask)<Game.spyNum(n)) spyMask |= 1L<<tRand.nextInt(n);
+        int[] seats = new int[n];
+        if(mixed){
+          //the row competitor takes half the seats, and the odd seat on a coin flip
+          int rowSeats = n/2+(n%2==1 && tRand.nextBoolean()?1:0);
+          for(int i = 0; i<n; i++) seats[i] = i<rowSeats?0:1;
+          for(int i = n-1; i>0; i--){
+            int k = tRand.nextInt(i+1);
+            int t = seats[i]; seats[i] = seats[k]; seats[k] = t;
+          }
+        }
+        else for(int i = 0; i<n; i++) seats[i] = (spyMask & 1L<<i)!=0?0:1;
+        boolean spiesWon = Game.playDeal(lineup, new Deal(seats, spyMask), gameSeed, null, false)>2;
+        if(!mixed){
+          if(spiesWon) wins++;
+          plays++;
+        }
+        else{
+          for(int i = 0; i<n; i++){
+            if(seats[i]!=0) continue;
+            if(spiesWon==((spyMask & 1L<<i)!=0)) wins++;
+            plays++;
+          }
+        }
+      }
+      return this;
+    }
+  }
+
+}
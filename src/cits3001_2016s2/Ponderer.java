@@ -0,0 +1,142 @@
+package cits3001_2016s2;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs a PonderingAgent's ponder calls on a background daemon thread of its own, within a CPU time budget for the game.
+ * The game starts a ponder after each of the agent's method calls and stops it before the next:
+ * stopping cancels the ponder and waits for it to return, so the agent and its ponder never run at once.
+ * A ponder is cancelled once the agent has used its budget of CPU time on pondering, measured on the ponder thread,
+ * and all ponderers share a few permits to ponder, one per processor left over from the game threads by default,
+ * so a ponder that would take a processor from the players being called, or from games played in parallel, is skipped.
+ * The number of permits is set by the system property cits3001_2016s2.ponder.threads.
+ * */
+public class Ponderer{
+
+  private static final ThreadMXBean CPU = ManagementFactory.getThreadMXBean();
+  private static final Semaphore PERMITS = new Semaphore(Integer.getInteger("cits3001_2016s2.ponder.threads", Runtime.getRuntime().availableProcessors()-1));
+
+  private final PonderingAgent agent;
+  private final Thread thread;
+  private final long budget;
+  private long used = 0; //CPU time of finished ponders
+  private long ponderStart; //CPU time of the ponder thread when the current ponder started
+  private volatile boolean cancelled = false;
+  private boolean requested = false, running = false, closed = false, failed = false;
+
+  /**
+   * Creates a ponderer and its thread.
+   * @param agent the agent to ponder for
+   * @param name the agent's name in the game, to name the thread
+   * @param budget the CPU time the agent may spend pondering in the game, in nanoseconds
+   * */
+  public Ponderer(PonderingAgent agent, char name, long budget){
+    this.agent = agent;
+    this.budget = budget;
+    thread = new Thread(this::run, "Ponder-"+name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Checks whether the current ponder should return: the agent is about to be called, the game is over, or the budget is spent.
+   * Called by the agent on its ponder thread.
+   * @return true if the ponder should return
+   * */
+  public boolean cancelled(){
+    return cancelled || used+cpuTime()-ponderStart>budget;
+  }
+
+  /**
+   * The CPU time of the agent's pondering so far.
+   * @return the CPU time of finished ponders, in nanoseconds
+   * */
+  public synchronized long used(){
+    return used;
+  }
+
+  /**
+   * Starts a ponder, unless one is running already, the budget is spent or pondering has failed.
+   * */
+  synchronized void start(){
+    if(running || closed || failed || used>=budget) return;
+    cancelled = false;
+    requested = true;
+    notifyAll();
+  }
+
+  /**
+   * Cancels the current ponder, if any, and waits for it to return.
+   * */
+  synchronized void stop(){
+    cancelled = true;
+    requested = false;
+    boolean interrupted = false;
+    while(running){
+      try{wait();}
+      catch(InterruptedException e){interrupted = true;}
+    }
+    if(interrupted) Thread.currentThread().interrupt();
+  }
+
+  /**
+   * Stops pondering for good and lets the thread end.
+   * */
+  synchronized void close(){
+    stop();
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * The ponder thread: waits for each start, and runs a ponder.
+   * */
+  private void run(){
+    while(true){
+      synchronized(this){
+        while(!requested && !closed){
+          try{wait();}
+          catch(InterruptedException e){return;}
+        }
+        if(closed) return;
+        requested = false;
+        running = true;
+      }
+      long spent = 0;
+      try{
+        if(PERMITS.tryAcquire()){
+          ponderStart = cpuTime();
+          try{
+            if(!cancelled) agent.ponder(this);
+          }
+          finally{
+            PERMITS.release();
+            spent = cpuTime()-ponderStart;
+          }
+        }
+      }
+      catch(Throwable t){
+        //an Error from the agent fails its pondering, rather than the thread
+        synchronized(this){failed = true;}
+      }
+      finally{
+        synchronized(this){
+          used += spent;
+          running = false;
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * The CPU time of the ponder thread, or the wall clock where the JVM cannot measure thread CPU time.
+   * @return nanoseconds
+   * */
+  private static long cpuTime(){
+    return CPU.isCurrentThreadCpuTimeSupported()?CPU.getCurrentThreadCpuTime():System.nanoTime();
+  }
+
+}
@@ -0,0 +1,20 @@
+package cits3001_2016s2;
+
+/**
+ * An optional extension of the Agent interface, for agents that think ahead while other players act.
+ * If the game allows pondering (see Game.setPonderBudget), it gives each pondering agent a background thread,
+ * and after each call to one of the agent's methods it calls ponder on that thread.
+ * Before the agent's next method call the game cancels the ponder and waits for it to return, so the agent is never called while it ponders,
+ * and ponder can read and update the agent's state without locks, as long as it leaves the state whole whenever it returns.
+ * The wait is timed as part of the next call, so a ponder should check cancelled() often and return soon after it is set.
+ * **/
+public interface PonderingAgent extends Agent{
+
+  /**
+   * Does speculative work, such as precomputing what the next do_ method will need, until there is no more to do or it is cancelled.
+   * Exceptions thrown by ponder end pondering for the rest of the game.
+   * @param ponderer the agent's ponderer, to check for cancellation
+   * */
+  public void ponder(Ponderer ponderer);
+
+}
@@ -13,7 +13,7 @@ import java.util.*;
  * **/
 
 
-public class RandomAgent implements Agent{
+public class RandomAgent implements SelectiveAgent{
 
   private String name;
   private String players;
@@ -21,7 +21,23 @@ public class RandomAgent implements Agent{
   private Random random;
 
   public RandomAgent(){
-    random = new Random();
+    this(new Random());
+  }
+
+  /**
+   * Creates a random agent that draws from the given source, so its play can be reproduced.
+   * @param random the source of the agent's choices
+   * */
+  public RandomAgent(Random random){
+    this.random = random;
+  }
+
+  /**
+   * The random agent ignores everything it is told apart from its status.
+   * @return the flags for accusations, missions, proposals, votes and traitors
+   * */
+  public int ignores(){
+    return ACCUSATIONS | MISSION | PROPOSALS | VOTES | TRAITORS;
   }
 
   /**
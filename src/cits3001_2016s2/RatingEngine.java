@@ -0,0 +1,228 @@
+package cits3001_2016s2;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rates the competitors from the games they play, as a faster settling alternative to ranking by raw win rate.
+ * Every competitor has two ratings, one as a spy and one as resistance, each a normal belief about its skill (a mean and a variance) in the manner of TrueSkill.
+ * A team's performance is the average skill of its seats plus noise, so a competitor holding several seats of a team counts for its share of them.
+ * When a game ends the winners' means move up and the losers' down, by more when the result was a surprise and by more for competitors the engine is less sure of,
+ * and the variances shrink, so ratings move quickly at first and settle as the games add up.
+ * A small drift is added to each variance before a game, so a rating can still follow an agent that changes.
+ * Each update takes time in proportion to the seats at the table, and the engine is synchronized so parallel game workers can share one.
+ * Spy and resistance ratings are on scales that can slide against each other, so competitors are ranked by the sum of their two means.
+ * */
+public class RatingEngine{
+
+  /** The mean of a new rating */
+  public static final double MU = 25.0;
+  /** The standard deviation of a new rating */
+  public static final double SIGMA = MU/3;
+  /** The standard deviation of a team's performance about its skill in a single game */
+  public static final double BETA = MU/6;
+  /** The standard deviation added to each rating before a game */
+  public static final double TAU = MU/300;
+
+  private final Competitor[] agents;
+  private final double[] spyMu, spyVar, resMu, resVar;
+  private final double[] spyWeight, resWeight; //each competitor's share of the spy and resistance seats in the game being recorded
+  private final int[] games;
+
+  /**
+   * Creates an engine with new ratings for the competitors.
+   * @param agents the competitors. Games are recorded by index into this array.
+   * */
+  public RatingEngine(Competitor[] agents){
+    this.agents = agents.clone();
+    int n = agents.length;
+    spyMu = new double[n];
+    resMu = new double[n];
+    spyVar = new double[n];
+    resVar = new double[n];
+    spyWeight = new double[n];
+    resWeight = new double[n];
+    games = new int[n];
+    Arrays.fill(spyMu, MU);
+    Arrays.fill(resMu, MU);
+    Arrays.fill(spyVar, SIGMA*SIGMA);
+    Arrays.fill(resVar, SIGMA*SIGMA);
+  }
+
+  /**
+   * Runs a seeded tournament on several threads, rating the competitors as the games finish.
+   * The games are those of Game.tournament(Competitor[],int,long) with the same seed, but the order the ratings see them in depends on the threads.
+   * @param agents the competitors
+   * @param rounds the number of games to play
+   * @param seed the tournament seed
+   * @param threads the number of worker threads
+   * @return an html table of the competitors ranked by rating
+   * */
+  public static String tournament(Competitor[] agents, int rounds, long seed, int threads){
+    RatingEngine ratings = new RatingEngine(agents);
+    AtomicInteger next = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    List<Future<?>> workers = new ArrayList<Future<?>>();
+    TournamentMetrics.get().scheduled(rounds);
+    for(int t = 0; t<threads; t++){
+      workers.add(pool.submit(new Runnable(){
+        public void run(){
+          for(int round = next.getAndIncrement(); round<rounds; round = next.getAndIncrement())
+            Game.playRounds(agents, seed, round, round+1, false, ratings);
+        }
+      }));
+    }
+    try{
+      for(Future<?> f: workers) f.get();
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+    }
+    catch(ExecutionException e){
+      throw new RuntimeException("A rated game failed", e.getCause());
+    }
+    finally{
+      pool.shutdownNow();
+    }
+    return ratings.report();
+  }
+
+  /**
+   * Updates the ratings from a finished game.
+   * @param seats the index of the competitor in each seat
+   * @param spies a bit mask of the spy seats
+   * @param spiesWon true if the spies won the game
+   * */
+  public synchronized void record(int[] seats, long spies, boolean spiesWon){
+    int numSpies = Long.bitCount(spies);
+    for(int i = 0; i<seats.length; i++){
+      //both shares are still 0 at a competitor's first seat, so each competitor's game is counted once
+      if(spyWeight[seats[i]]==0 && resWeight[seats[i]]==0) games[seats[i]]++;
+      if((spies & 1L<<i)!=0) spyWeight[seats[i]] += 1.0/numSpies;
+      else resWeight[seats[i]] += 1.0/(seats.length-numSpies);
+    }
+    //add each competitor's rating once per side, negating its share to mark it counted
+    double spyPerformance = 0, resPerformance = 0, c2 = 2*BETA*BETA;
+    for(int i = 0; i<seats.length; i++){
+      int a = seats[i];
+      if((spies & 1L<<i)!=0){
+        if(spyWeight[a]<0) continue;
+        spyVar[a] += TAU*TAU;
+        spyPerformance += spyWeight[a]*spyMu[a];
+        c2 += spyWeight[a]*spyWeight[a]*spyVar[a];
+        spyWeight[a] = -spyWeight[a];
+      }
+      else{
+        if(resWeight[a]<0) continue;
+        resVar[a] += TAU*TAU;
+        resPerformance += resWeight[a]*resMu[a];
+        c2 += resWeight[a]*resWeight[a]*resVar[a];
+        resWeight[a] = -resWeight[a];
+      }
+    }
+    double c = Math.sqrt(c2);
+    double t = (spiesWon?spyPerformance-resPerformance:resPerformance-spyPerformance)/c;
+    double v = surprise(t);
+    double w = v*(v+t);
+    double sign = spiesWon?1:-1;
+    for(int i = 0; i<seats.length; i++){
+      int a = seats[i];
+      if((spies & 1L<<i)!=0){
+        if(spyWeight[a]==0) continue;
+        double share = -spyWeight[a], s = share*spyVar[a];
+        spyMu[a] += sign*s/c*v;
+        spyVar[a] *= Math.max(1-share*s/c2*w, 1e-4);
+        spyWeight[a] = 0;
+      }
+      else{
+        if(resWeight[a]==0) continue;
+        double share = -resWeight[a], s = share*resVar[a];
+        resMu[a] -= sign*s/c*v;
+        resVar[a] *= Math.max(1-share*s/c2*w, 1e-4);
+        resWeight[a] = 0;
+      }
+    }
+  }
+
+  /**
+   * The mean of a competitor's spy rating.
+   * @param agent the competitor's index
+   * @return the mean skill as a spy
+   * */
+  public synchronized double spyRating(int agent){
+    return spyMu[agent];
+  }
+
+  /**
+   * The mean of a competitor's resistance rating.
+   * @param agent the competitor's index
+   * @return the mean skill as resistance
+   * */
+  public synchronized double resRating(int agent){
+    return resMu[agent];
+  }
+
+  /**
+   * A competitor's overall rating, which orders the leaderboard.
+   * @param agent the competitor's index
+   * @return the sum of the competitor's spy and resistance means
+   * */
+  public synchronized double rating(int agent){
+    return spyMu[agent]+resMu[agent];
+  }
+
+  /**
+   * The competitors in leaderboard order.
+   * @return the competitors' indices, best rated first
+   * */
+  public synchronized int[] ranking(){
+    Integer[] order = new Integer[agents.length];
+    for(int i = 0; i<order.length; i++) order[i] = i;
+    Arrays.sort(order, new Comparator<Integer>(){
+      public int compare(Integer a, Integer b){return Double.compare(rating(b), rating(a));}
+    });
+    int[] ranking = new int[order.length];
+    for(int i = 0; i<order.length; i++) ranking[i] = order[i];
+    return ranking;
+  }
+
+  /**
+   * Tabulates the leaderboard.
+   * @return an html table of the competitors ranked by rating, with each rating's mean and standard deviation
+   * */
+  public synchronized String report(){
+    String ret =
+    "<html><body><table><tr><th>Name</th><th>Author</th><th>Spy Rating</th><th>Res Rating</th><th>Rating</th><th>Games</th></tr>";
+    for(int a: ranking())
+      ret += String.format("<tr><td>%s</td><td>%s</td><td>%.2f &plusmn; %.2f</td><td>%.2f &plusmn; %.2f</td><td>%.2f</td><td>%d</td></tr>\n",
+        agents[a].name, agents[a].authors, spyMu[a], Math.sqrt(spyVar[a]), resMu[a], Math.sqrt(resVar[a]), rating(a), games[a]);
+    return ret+"</table></body></html>";
+  }
+
+  /**
+   * The correction to the winners' mean for a win by t standard deviations of the expected margin:
+   * the normal density over the normal distribution function at t, large when the winner was expected to lose.
+   * @param t the expected winning margin over its standard deviation
+   * @return the density over the distribution function at t
+   * */
+  private static double surprise(double t){
+    double cdf = 0.5*erfc(-t/Math.sqrt(2));
+    if(cdf<1e-300) return -t;
+    return Math.exp(-t*t/2)/Math.sqrt(2*Math.PI)/cdf;
+  }
+
+  /**
+   * The complementary error function, to a relative error below 1.2e-7 (Numerical Recipes' Chebyshev fit).
+   * @param x the argument
+   * @return erfc(x)
+   * */
+  private static double erfc(double x){
+    double z = Math.abs(x);
+    double t = 1/(1+0.5*z);
+    double r = t*Math.exp(-z*z-1.26551223+t*(1.00002368+t*(0.37409196+t*(0.09678418+t*(-0.18628806+
+      t*(0.27886807+t*(-1.13520398+t*(1.48851587+t*(-0.82215223+t*0.17087277)))))))));
+    return x>=0?r:2-r;
+  }
+
+}
@@ -0,0 +1,108 @@
+package cits3001_2016s2;
+
+/**
+ * The parts of the rules of resistance that depend on the size of the table:
+ * how many players are spies, how many are sent on each mission, and how many betrayals it takes to fail each mission.
+ * A game plays by the STANDARD rules unless it is given other tables (see Game.setRules), so large-table variants can be hosted.
+ * */
+public class Rules{
+
+  /**
+   * The published rules for 5 to 10 players, extended up to Teams.MAX_SEATS players.
+   * A third of the table, rounded up, are spies, which agrees with the published table.
+   * Beyond 10 players mission teams grow in proportion to the 10 player teams,
+   * and from 7 players up the fourth mission needs two betrayals to fail.
+   * */
+  public static final Rules STANDARD = extend(new int[][]{{2,3,2,3,3},{2,3,4,3,4},{2,3,3,4,4},{3,4,4,5,5},{3,4,4,5,5},{3,4,4,5,5}}, Teams.MAX_SEATS);
+
+  private final int minPlayers;
+  private final int[] spies; //spies[n-minPlayers] is the number of spies in an n player game
+  private final int[][] missions; //missions[n-minPlayers][i] is the number sent on mission i+1 in an n player game
+  private final int[][] fails; //fails[n-minPlayers][i] is the number of betrayals that fail mission i+1 in an n player game
+
+  /**
+   * Creates a set of rules from tables covering minPlayers to minPlayers+spies.length-1 players.
+   * @param minPlayers the smallest table the rules allow
+   * @param spies the number of spies at each table size
+   * @param missions the five mission team sizes at each table size
+   * @param fails the number of betrayals that fail each of the five missions at each table size
+   * */
+  public Rules(int minPlayers, int[] spies, int[][] missions, int[][] fails){
+    if(minPlayers<2 || spies.length==0 || missions.length!=spies.length || fails.length!=spies.length || minPlayers+spies.length-1>Teams.MAX_SEATS)
+      throw new RuntimeException("Rule tables must cover 2 to "+Teams.MAX_SEATS+" players");
+    for(int i = 0; i<spies.length; i++){
+      int n = minPlayers+i;
+      if(spies[i]<1 || spies[i]>=n || missions[i].length!=5 || fails[i].length!=5) throw new RuntimeException("Bad rules for "+n+" players");
+      for(int m = 0; m<5; m++)
+        if(missions[i][m]<1 || missions[i][m]>=n || fails[i][m]<1 || fails[i][m]>missions[i][m]) throw new RuntimeException("Bad rules for mission "+(m+1)+" with "+n+" players");
+    }
+    this.minPlayers = minPlayers;
+    this.spies = spies.clone();
+    this.missions = new int[spies.length][];
+    this.fails = new int[spies.length][];
+    for(int i = 0; i<spies.length; i++){
+      this.missions[i] = missions[i].clone();
+      this.fails[i] = fails[i].clone();
+    }
+  }
+
+  /**
+   * Builds the standard rules from the published mission sizes for 5 to 10 players.
+   * @param published the mission sizes for 5 to 10 players
+   * @param maxPlayers the largest table to cover
+   * @return the rules
+   * */
+  private static Rules extend(int[][] published, int maxPlayers){
+    int[] spies = new int[maxPlayers-4];
+    int[][] missions = new int[maxPlayers-4][5];
+    int[][] fails = new int[maxPlayers-4][5];
+    for(int n = 5; n<=maxPlayers; n++){
+      spies[n-5] = (n+2)/3;
+      for(int m = 0; m<5; m++){
+        missions[n-5][m] = n<=10?published[n-5][m]:(int)Math.round(published[5][m]*n/10.0);
+        fails[n-5][m] = m==3 && n>=7?2:1;
+      }
+    }
+    return new Rules(5, spies, missions, fails);
+  }
+
+  /** @return the fewest players these rules allow */
+  public int minPlayers(){
+    return minPlayers;
+  }
+
+  /** @return the most players these rules allow */
+  public int maxPlayers(){
+    return minPlayers+spies.length-1;
+  }
+
+  /**
+   * The number of spies in a game.
+   * @param numPlayers the number of players in the game
+   * @return the number of spies
+   * */
+  public int spies(int numPlayers){
+    return spies[numPlayers-minPlayers];
+  }
+
+  /**
+   * The number of agents sent on a mission.
+   * @param numPlayers the number of players in the game
+   * @param mission the mission, from 1 to 5
+   * @return the size of the mission team
+   * */
+  public int missionSize(int numPlayers, int mission){
+    return missions[numPlayers-minPlayers][mission-1];
+  }
+
+  /**
+   * The number of betrayals that fail a mission.
+   * @param numPlayers the number of players in the game
+   * @param mission the mission, from 1 to 5
+   * @return the fewest traitors that fail the mission
+   * */
+  public int failsNeeded(int numPlayers, int mission){
+    return fails[numPlayers-minPlayers][mission-1];
+  }
+
+}
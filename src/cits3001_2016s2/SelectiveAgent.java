@@ -0,0 +1,27 @@
+package cits3001_2016s2;
+
+/**
+ * An optional extension of the Agent interface for agents that ignore some of the get_ methods.
+ * The game never calls the get_ methods an agent ignores, saving a call per player (or per accuser) each time.
+ * The flags are read once, when the agent is added to the game.
+ * **/
+public interface SelectiveAgent extends Agent{
+
+  /** The agent ignores get_Accusation (and get_Accusations) */
+  public static final int ACCUSATIONS = 1;
+  /** The agent ignores get_Mission, which can be inferred as the last proposed mission */
+  public static final int MISSION = 2;
+  /** The agent ignores get_ProposedMission */
+  public static final int PROPOSALS = 4;
+  /** The agent ignores get_Votes */
+  public static final int VOTES = 8;
+  /** The agent ignores get_Traitors */
+  public static final int TRAITORS = 16;
+
+  /**
+   * Declares the get_ methods the agent ignores.
+   * @return the bitwise or of the flags for the ignored methods
+   * */
+  public int ignores();
+
+}
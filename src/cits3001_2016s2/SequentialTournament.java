@@ -0,0 +1,72 @@
+package cits3001_2016s2;
+
+import java.util.*;
+
+/**
+ * Runs a seeded tournament in batches until the ranking of the competitors is settled, rather than for a fixed number of games.
+ * After each batch every competitor's win rate gets a confidence interval that stays valid however many times it is checked:
+ * the error rate alpha is spread over all the checks (alpha*6/(pi^2 t^2) at check t) and all the competitors,
+ * and each interval is a Hoeffding bound on the competitor's seats played.
+ * The ranking is settled when every pair of neighbouring competitors is either separated (the intervals do not overlap)
+ * or known to be within epsilon of each other (the observed difference plus both interval half widths is below epsilon).
+ * The games played are the first rounds of the seeded tournament, so the results can be extended or sharded later.
+ * Seats of the same competitor in one game are counted as separate plays, so the bound is a little optimistic when a competitor fills a table.
+ * */
+public class SequentialTournament{
+
+  /**
+   * Runs an adaptive tournament.
+   * @param agents the competitors
+   * @param alpha the chance the final ranking puts any pair of competitors more than epsilon apart in the wrong order
+   * @param epsilon the difference in win rates below which two competitors count as tied
+   * @param batch the number of games played between checks
+   * @param maxGames the most games to play if the ranking never settles
+   * @param seed the tournament seed
+   * @return an html table of the results, followed by the number of games played
+   * */
+  public static String tournament(Competitor[] agents, double alpha, double epsilon, int batch, int maxGames, long seed){
+    int played = 0;
+    int check = 0;
+    boolean settled = false;
+    while(!settled && played<maxGames){
+      int to = Math.min(maxGames, played+batch);
+      TournamentMetrics.get().scheduled(to-played);
+      Game.playRounds(agents, seed, played, to, false);
+      played = to;
+      settled = settled(agents, alpha*6/(Math.PI*Math.PI*++check*check), epsilon);
+    }
+    return Game.report(agents)+"<p>"+played+" games played, ranking "+(settled?"settled":"not settled")+"</p>";
+  }
+
+  /**
+   * Checks whether the ranking of the competitors is settled at the given error rate.
+   * @param agents the competitors
+   * @param alpha the error rate for this check
+   * @param epsilon the difference in win rates below which two competitors count as tied
+   * @return true if every neighbouring pair is separated or tied
+   * */
+  public static boolean settled(Competitor[] agents, double alpha, double epsilon){
+    Competitor[] ranked = agents.clone();
+    for(Competitor c: ranked) if(c.spyPlays+c.resPlays==0) return false;
+    Arrays.sort(ranked);
+    for(int i = 1; i<ranked.length; i++){
+      double lo = radius(ranked[i-1], alpha/ranked.length);
+      double hi = radius(ranked[i], alpha/ranked.length);
+      boolean separated = ranked[i].winRate()-hi > ranked[i-1].winRate()+lo;
+      boolean tied = Math.abs(ranked[i].winRate()-ranked[i-1].winRate())+lo+hi < epsilon;
+      if(!separated && !tied) return false;
+    }
+    return true;
+  }
+
+  /**
+   * The half width of a two sided Hoeffding interval on a competitor's win rate.
+   * @param c the competitor
+   * @param alpha the chance the interval misses the true win rate
+   * @return the half width of the interval
+   * */
+  private static double radius(Competitor c, double alpha){
+    return Math.sqrt(Math.log(2/alpha)/(2.0*(c.spyPlays+c.resPlays)));
+  }
+
+}
@@ -0,0 +1,163 @@
+package cits3001_2016s2;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Runs a seeded tournament split into shards, each played in its own child JVM.
+ * Every shard plays a contiguous range of rounds of the same seeded tournament (see Game.tournament(Competitor[],int,long)),
+ * so the shards together play exactly the games of the unsharded run.
+ * Each child writes its competitor counters and latency stats to a result file, which the coordinator merges.
+ * A shard that crashes or writes no results is reported and left out, and the surviving shards are kept.
+ * Only competitors with an agent class can be sharded, as a child JVM cannot be handed a factory.
+ * */
+public class ShardedTournament{
+
+  /**
+   * Runs a sharded tournament, with at most one child JVM per available processor running at a time.
+   * @param agents the competitors
+   * @param rounds the number of games to play
+   * @param shards the number of shards to split the rounds into
+   * @param seed the tournament seed
+   * @return an html table of the merged results
+   * */
+  public static String tournament(Competitor[] agents, int rounds, int shards, long seed){
+    return tournament(agents, rounds, shards, Runtime.getRuntime().availableProcessors(), seed);
+  }
+
+  /**
+   * Runs a sharded tournament.
+   * @param agents the competitors
+   * @param rounds the number of games to play
+   * @param shards the number of shards to split the rounds into
+   * @param parallel the maximum number of child JVMs running at once
+   * @param seed the tournament seed
+   * @return an html table of the merged results
+   * */
+  public static String tournament(Competitor[] agents, int rounds, int shards, int parallel, long seed){
+    if(shards < 1 || parallel < 1) throw new RuntimeException("Need at least one shard");
+    for(Competitor c: agents)
+      if(c.agent==null) throw new RuntimeException("Competitor "+c.name+" is made by a factory, so it cannot be started in a shard");
+    File dir = new File("shards");
+    dir.mkdirs();
+    Process[] running = new Process[shards];
+    File[] results = new File[shards];
+    int next = 0, done = 0, active = 0;
+    List<Integer> failed = new ArrayList<Integer>();
+    try{
+      while(done < shards){
+        while(next < shards && active < parallel){
+          results[next] = new File(dir, "Shard"+next+".result");
+          results[next].delete();
+          running[next] = launch(agents, seed, next*rounds/shards, (next+1)*rounds/shards, results[next], new File(dir, "Shard"+next+".txt"));
+          if(running[next]==null){failed.add(next); done++;}
+          else active++;
+          next++;
+        }
+        for(int k = 0; k<next; k++){
+          if(running[k]!=null && !running[k].isAlive()){
+            if(running[k].exitValue()!=0 || !merge(agents, results[k])) failed.add(k);
+            running[k] = null;
+            done++; active--;
+          }
+        }
+        Thread.sleep(50);
+      }
+    }
+    catch(InterruptedException e){
+      for(Process p: running) if(p!=null) p.destroy();
+      Thread.currentThread().interrupt();
+    }
+    for(Integer k: failed)
+      System.out.println("Shard "+k+" (rounds "+(k*rounds/shards)+" to "+((k+1)*rounds/shards-1)+") failed, its games are not counted. See shards/Shard"+k+".txt");
+    return Game.report(agents);
+  }
+
+  /**
+   * Starts a child JVM playing one shard.
+   * @param agents the competitors
+   * @param seed the tournament seed
+   * @param from the first round of the shard
+   * @param to the round to stop at
+   * @param result the file the child writes its results to
+   * @param log the file the child's output is redirected to
+   * @return the child process, or null if it could not be started
+   * */
+  private static Process launch(Competitor[] agents, long seed, int from, int to, File result, File log){
+    List<String> cmd = new ArrayList<String>();
+    cmd.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+    cmd.add("-cp");
+    cmd.add(System.getProperty("java.class.path"));
+    cmd.add(ShardedTournament.class.getName());
+    cmd.add(""+seed);
+    cmd.add(""+from);
+    cmd.add(""+to);
+    cmd.add(result.getPath());
+    for(Competitor c: agents){
+      cmd.add(c.agent.getName());
+      cmd.add(c.name);
+      cmd.add(c.authors);
+    }
+    try{
+      ProcessBuilder pb = new ProcessBuilder(cmd);
+      pb.redirectErrorStream(true);
+      pb.redirectOutput(log);
+      return pb.start();
+    }
+    catch(IOException e){
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Merges a shard's result file into the competitors.
+   * Nothing is merged unless the whole file is readable and matches the competitors.
+   * @param agents the competitors
+   * @param result the shard's result file
+   * @return true if the results were merged
+   * */
+  private static boolean merge(Competitor[] agents, File result){
+    Competitor[] shard = new Competitor[agents.length];
+    try{
+      BufferedReader in = new BufferedReader(new FileReader(result));
+      try{
+        for(int i = 0; i<agents.length; i++){
+          Competitor c = agents[i].copy();
+          c.setCounters(in.readLine());
+          shard[i] = c;
+        }
+      }
+      finally{in.close();}
+    }
+    catch(Exception e){return false;}
+    for(int i = 0; i<agents.length; i++) agents[i].merge(shard[i]);
+    return true;
+  }
+
+  /**
+   * Child JVM entry point: plays one shard and writes its results.
+   * The result file is written to a temporary file first and moved into place, so a crashed shard never leaves a partial result.
+   * @param args the tournament seed, the first round, the round to stop at, the result file,
+   * then the class name, name and authors of each competitor
+   * */
+  public static void main(String[] args) throws Exception{
+    long seed = Long.parseLong(args[0]);
+    int from = Integer.parseInt(args[1]);
+    int to = Integer.parseInt(args[2]);
+    File result = new File(args[3]);
+    Competitor[] agents = new Competitor[(args.length-4)/3];
+    for(int i = 0; i<agents.length; i++)
+      agents[i] = new Competitor(Class.forName(args[4+3*i]).asSubclass(Agent.class), args[5+3*i], args[6+3*i]);
+    TournamentMetrics.get().scheduled(to-from);
+    Game.playRounds(agents, seed, from, to, false);
+    File tmp = new File(result.getPath()+".tmp");
+    PrintWriter out = new PrintWriter(new FileWriter(tmp));
+    for(Competitor c: agents)
+      out.println(c.counters());
+    out.close();
+    Files.move(tmp.toPath(), result.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+}
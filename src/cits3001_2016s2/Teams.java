@@ -0,0 +1,148 @@
+package cits3001_2016s2;
+
+import java.util.Arrays;
+
+/**
+ * Names for up to 64 seats, and a table of canonical Strings for every set of players in a game of up to 10 players.
+ * Seats 0 to 25 are named 'A' to 'Z', seats 26 to 51 'a' to 'z', and seats 52 to 63 by the Greek capitals from alpha (U+0391),
+ * so names sort in seat order and a String of names sorted by character is in seat order too.
+ * Bit i of a mask stands for the player in seat i. Each mask of the first 10 seats has one shared, interned String of its players in order.
+ * The game reports teams, votes and names using these Strings, so agents that canonicalise their own Strings through the table
+ * compare and store the same instances, and nothing is allocated for them as the game goes on.
+ * Larger sets are built on demand.
+ * */
+public class Teams{
+
+  /** The most players a table mask can describe */
+  public static final int MAX_PLAYERS = 10;
+  /** The most seats at a game, one per bit of a long mask */
+  public static final int MAX_SEATS = 64;
+
+  private static final String[] TABLE = new String[1<<MAX_PLAYERS];
+  private static final String[] NAMES = new String[MAX_SEATS];
+  private static final String[] UNKNOWN = new String[MAX_SEATS+1];
+
+  static{
+    char[] buf = new char[MAX_SEATS];
+    for(int mask = 0; mask<TABLE.length; mask++){
+      int len = 0;
+      for(int i = 0; i<MAX_PLAYERS; i++)
+        if((mask & 1<<i)!=0) buf[len++] = seatName(i);
+      TABLE[mask] = new String(buf, 0, len).intern();
+    }
+    for(int i = 0; i<MAX_SEATS; i++)
+      NAMES[i] = i<MAX_PLAYERS?TABLE[1<<i]:String.valueOf(seatName(i)).intern();
+    for(int i = 0; i<=MAX_SEATS; i++){
+      Arrays.fill(buf, '?');
+      UNKNOWN[i] = new String(buf, 0, i).intern();
+    }
+  }
+
+  /**
+   * The name of a seat.
+   * @param seat the seat, from 0 to 63
+   * @return the character naming the player in the seat
+   * */
+  public static char seatName(int seat){
+    if(seat<26) return (char)('A'+seat);
+    else if(seat<52) return (char)('a'+seat-26);
+    else return (char)('\u0391'+seat-52);
+  }
+
+  /**
+   * The seat of a name.
+   * @param name the character naming a player
+   * @return the player's seat, or -1 if the character does not name a seat
+   * */
+  public static int seat(char name){
+    if(name>='A' && name<='Z') return name-'A';
+    else if(name>='a' && name<='z') return name-'a'+26;
+    else if(name>='\u0391' && name<'\u0391'+MAX_SEATS-52) return name-'\u0391'+52;
+    else return -1;
+  }
+
+  /**
+   * The mask of the first n seats.
+   * @param n the number of seats, from 0 to 64
+   * @return a mask with the low n bits set
+   * */
+  public static long first(int n){
+    return n==MAX_SEATS?-1L:(1L<<n)-1;
+  }
+
+  /**
+   * The canonical String of a set of players.
+   * @param mask the set of players, bit i for the player in seat i
+   * @return the names of the players, in seat order
+   * */
+  public static String of(long mask){
+    if(mask>=0 && mask<TABLE.length) return TABLE[(int)mask];
+    char[] buf = new char[Long.bitCount(mask)];
+    int len = 0;
+    for(long m = mask; m!=0; m &= m-1) buf[len++] = seatName(Long.numberOfTrailingZeros(m));
+    return new String(buf);
+  }
+
+  /**
+   * The canonical name of a single player.
+   * @param player the player's seat, 0 for 'A'
+   * @return the player's name as a String
+   * */
+  public static String name(int player){
+    return NAMES[player];
+  }
+
+  /**
+   * The canonical String of n question marks, as reported in place of the spies to the resistance.
+   * @param n the number of spies
+   * @return a String of n question marks
+   * */
+  public static String unknown(int n){
+    return UNKNOWN[n];
+  }
+
+  /**
+   * The mask of a set of players in the first 10 seats.
+   * @param team the names of the players, in any order
+   * @return the mask of the players, or -1 if a name is repeated or is not one of the first 10 players
+   * */
+  public static int mask(String team){
+    int mask = 0;
+    for(int i = 0; i<team.length(); i++){
+      int p = team.charAt(i)-65;
+      if(p<0 || p>=MAX_PLAYERS || (mask & 1<<p)!=0) return -1;
+      mask |= 1<<p;
+    }
+    return mask;
+  }
+
+  /**
+   * The mask of a set of players in any seats.
+   * @param team the names of the players, in any order
+   * @return the mask of the players, or -1 if a name is repeated or does not name a seat
+   * (so the set of all 64 seats cannot be told apart from a bad team)
+   * */
+  public static long longMask(String team){
+    long mask = 0;
+    for(int i = 0; i<team.length(); i++){
+      int p = seat(team.charAt(i));
+      if(p<0 || (mask & 1L<<p)!=0) return -1;
+      mask |= 1L<<p;
+    }
+    return mask;
+  }
+
+  /**
+   * The canonical form of a String of player names.
+   * @param team the names of the players, in any order
+   * @return the canonical String of the players if they can be masked, otherwise the characters of team sorted into a new String
+   * */
+  public static String canonical(String team){
+    int mask = mask(team);
+    if(mask>=0) return TABLE[mask];
+    char[] arr = team.toCharArray();
+    Arrays.sort(arr);
+    return new String(arr);
+  }
+
+}
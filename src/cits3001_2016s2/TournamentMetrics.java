@@ -0,0 +1,180 @@
+package cits3001_2016s2;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Live metrics of the games played in this JVM, published as platform MBeans so a running tournament can be watched
+ * in jconsole, or read by a local scraper over JMX, rather than by tailing the game logs.
+ * The tournament as a whole is cits3001_2016s2:type=Tournament, and each competitor is cits3001_2016s2:type=Competitor,name=<i>name</i>
+ * (see CompetitorMetrics). Agents can publish metrics of their own with register.
+ * Game workers update the metrics with a few adds to uncontended counters per call and per game, so they are always on.
+ * Runners add the games they are about to play with scheduled, and the queue depth is the games scheduled but not yet started.
+ * Each shard of a ShardedTournament is a JVM of its own, with its own metrics.
+ * */
+public class TournamentMetrics implements TournamentMetricsMBean{
+
+  private static final String DOMAIN = "cits3001_2016s2";
+  // The recent rate is over this many seconds
+  private static final int WINDOW = 60;
+  private static final TournamentMetrics METRICS = new TournamentMetrics();
+
+  private final ConcurrentHashMap<String, CompetitorMetrics> competitors = new ConcurrentHashMap<String, CompetitorMetrics>();
+  private final LongAdder scheduled = new LongAdder();
+  private final LongAdder started = new LongAdder();
+  private final LongAdder finished = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  // The games finished in each of the last WINDOW seconds, by second mod WINDOW
+  private final long[] recent = new long[WINDOW];
+  private final long[] recentSecond = new long[WINDOW];
+  private volatile long firstStart = 0;
+
+  private TournamentMetrics(){
+    register(this, DOMAIN+":type=Tournament");
+  }
+
+  /**
+   * The metrics of this JVM.
+   * @return the one TournamentMetrics
+   * */
+  public static TournamentMetrics get(){
+    return METRICS;
+  }
+
+  /**
+   * Publishes an MBean on the platform MBean server, unless one is already published under the name.
+   * Metrics are only an aid, so the games go on if it cannot be published.
+   * @param mbean the MBean
+   * @param name its object name, e.g. s21469477:type=PosteriorCache,name=HeuristicAgent
+   * */
+  public static void register(Object mbean, String name){
+    try{
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(name);
+      if(!server.isRegistered(objectName)) server.registerMBean(mbean, objectName);
+    }
+    catch(JMException | RuntimeException e){}
+  }
+
+  /**
+   * The metrics of a competitor, published the first time they are asked for.
+   * @param name the competitor's name
+   * @return the metrics shared by every record of the competitor
+   * */
+  public CompetitorMetrics competitor(String name){
+    return competitors.computeIfAbsent(name, n -> {
+      CompetitorMetrics m = new CompetitorMetrics(n);
+      register(m, DOMAIN+":type=Competitor,name="+ObjectName.quote(n));
+      return m;
+    });
+  }
+
+  /**
+   * Adds games a runner is about to play to the queue.
+   * @param games the number of games
+   * */
+  public void scheduled(int games){
+    scheduled.add(games);
+  }
+
+  /**
+   * Counts a game starting.
+   * */
+  void gameStarted(){
+    if(firstStart==0) firstStart = System.nanoTime();
+    started.increment();
+  }
+
+  /**
+   * Counts a game played to the end.
+   * */
+  void gameFinished(){
+    finished.increment();
+    long second = System.nanoTime()/1000000000L;
+    int i = (int)(second%WINDOW);
+    synchronized(recent){
+      if(recentSecond[i]!=second){
+        recentSecond[i] = second;
+        recent[i] = 0;
+      }
+      recent[i]++;
+    }
+  }
+
+  /**
+   * Counts a game ended by an exception.
+   * */
+  void gameFailed(){
+    failed.increment();
+  }
+
+  public long getGamesScheduled(){return scheduled.sum();}
+
+  public long getGamesStarted(){return started.sum();}
+
+  public long getGamesFinished(){return finished.sum();}
+
+  public long getGamesFailed(){return failed.sum();}
+
+  public long getGamesInFlight(){
+    return Math.max(0, started.sum()-finished.sum()-failed.sum());
+  }
+
+  public long getQueueDepth(){
+    return Math.max(0, scheduled.sum()-started.sum());
+  }
+
+  public double getGamesPerSecond(){
+    long first = firstStart;
+    return first==0?0:finished.sum()/((System.nanoTime()-first)/1e9);
+  }
+
+  public double getRecentGamesPerSecond(){
+    long first = firstStart;
+    if(first==0) return 0;
+    long now = System.nanoTime();
+    long second = now/1000000000L;
+    long games = 0;
+    synchronized(recent){
+      for(int i = 0; i<WINDOW; i++)
+        if(second-recentSecond[i]<WINDOW) games += recent[i];
+    }
+    return games/Math.min(WINDOW, (now-first)/1e9);
+  }
+
+  public int getCompetitors(){return competitors.size();}
+
+  public long getCalls(){
+    long calls = 0;
+    for(CompetitorMetrics m: competitors.values()) calls += m.getCalls();
+    return calls;
+  }
+
+  public long getViolations(){
+    long violations = 0;
+    for(CompetitorMetrics m: competitors.values()) violations += m.getViolations();
+    return violations;
+  }
+
+  public long getExceptions(){
+    long exceptions = 0;
+    for(CompetitorMetrics m: competitors.values()) exceptions += m.getExceptions();
+    return exceptions;
+  }
+
+  public long getStrikes(){
+    long strikes = 0;
+    for(CompetitorMetrics m: competitors.values()) strikes += m.getStrikes();
+    return strikes;
+  }
+
+  public double getHeapUsedFraction(){
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    long max = heap.getMax()>0?heap.getMax():heap.getCommitted();
+    return max<=0?0:heap.getUsed()/(double)max;
+  }
+
+}
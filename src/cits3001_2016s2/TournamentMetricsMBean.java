@@ -0,0 +1,50 @@
+package cits3001_2016s2;
+
+/**
+ * The management interface of the tournament metrics, see TournamentMetrics.
+ * */
+public interface TournamentMetricsMBean{
+
+  /** @return the games runners have said they will play */
+  public long getGamesScheduled();
+
+  /** @return the games started */
+  public long getGamesStarted();
+
+  /** @return the games played to the end */
+  public long getGamesFinished();
+
+  /** @return the games ended by an exception */
+  public long getGamesFailed();
+
+  /** @return the games started and not yet over */
+  public long getGamesInFlight();
+
+  /** @return the games scheduled and not yet started */
+  public long getQueueDepth();
+
+  /** @return the games finished per second since the first game started */
+  public double getGamesPerSecond();
+
+  /** @return the games finished per second over the last minute */
+  public double getRecentGamesPerSecond();
+
+  /** @return the number of competitors with metrics */
+  public int getCompetitors();
+
+  /** @return the agent calls timed, over all competitors */
+  public long getCalls();
+
+  /** @return the calls that exceeded their time limit, over all competitors */
+  public long getViolations();
+
+  /** @return the exceptions thrown by agents, over all competitors */
+  public long getExceptions();
+
+  /** @return the strikes against agents, over all competitors */
+  public long getStrikes();
+
+  /** @return the heap in use as a fraction of the most the heap may grow to */
+  public double getHeapUsedFraction();
+
+}
@@ -0,0 +1,274 @@
+package s21469477;
+import cits3001_2016s2.*;
+
+/**
+ * BetrayalPlanner holds the spies' betrayal plans, found by backward induction over an abstract model of the game.
+ * Spies on a mission cannot talk, so they coordinate by role: the plan says whether nobody betrays, only the leader
+ * (when the leader is a spy on the team), only the other spies, or every spy. The abstract state is the mission, the
+ * failed missions, the betrayals seen so far (a public measure of how much the resistance suspects the spies), the
+ * spies on the team and whether the leader is one of them.
+ *
+ * The model: the next leader is a spy with probability spies / players. A spy leader takes itself and random others,
+ * with at least as many spies as the mission needs to fail. A resistance leader takes itself and others drawn with
+ * spies down weighted by exposure, spies / (spies + 2 * betrayals), so every betrayal now makes a spy less likely to
+ * be on a later team. Votes are not modelled. The value of a state is the chance the spies win from it, and the plan
+ * is the one of greatest value, with ties going to the plan with more betrayals, which still fails the mission if a
+ * teammate does not follow the plan, and then to keeping the leader hidden.
+ *
+ * The tables take a few kilobytes for every table size up to Teams.MAX_SEATS and are built when the class loads, so
+ * a plan is a single array lookup. They assume the standard rules (Rules.STANDARD) for spies, team sizes and the
+ * betrayals that fail a mission. Tables smaller than the standard rules allow, or a mission that custom rules fail on a
+ * different number of betrayals, are planned by a fixed rule instead (see fallback).
+ */
+public class BetrayalPlanner {
+    /** No spy betrays */
+    public static final int NONE = 0;
+    /** Only the leader betrays */
+    public static final int LEADER = 1;
+    /** Every spy but the leader betrays */
+    public static final int NON_LEADERS = 2;
+    /** Every spy betrays */
+    public static final int ALL = 3;
+
+    // Betrayals seen are counted up to this bucket, after which the spies are taken to be fully exposed
+    private static final int BUCKETS = 8;
+    private static final byte[][] PLANS = new byte[Teams.MAX_SEATS + 1][];
+
+    static {
+        for(int n = Rules.STANDARD.minPlayers(); n <= Teams.MAX_SEATS; ++n){
+            PLANS[n] = solve(n);
+        }
+    }
+
+    private BetrayalPlanner(){
+    }
+
+    /**
+     * plan
+     *
+     * @param numPlayers    The number of players
+     * @param mission       The mission, from 1 to 5
+     * @param failures      The number of failed missions
+     * @param betrayals     The number of betrayals seen in earlier missions
+     * @param spiesOnTeam   The number of spies on the mission
+     * @param spyLeader     Whether the leader is one of the spies on the mission
+     * @param required      The number of betrayals that fail the mission
+     * @return              NONE, LEADER, NON_LEADERS or ALL, which is the plan once the game is decided, since the
+     *                      remaining missions are still played
+     */
+    public static int plan(int numPlayers, int mission, int failures, int betrayals, int spiesOnTeam, boolean spyLeader, int required){
+        if(failures >= 3 || mission - 1 - failures >= 3){
+            return ALL;
+        }
+        if(PLANS[numPlayers] == null || required != Rules.STANDARD.failsNeeded(numPlayers, mission)){
+            return fallback(mission, failures, spiesOnTeam, spyLeader, required);
+        }
+        int spies = Rules.STANDARD.spies(numPlayers);
+        return PLANS[numPlayers][index(spies, mission, failures, Math.min(betrayals, BUCKETS - 1), Math.min(spiesOnTeam, spies), spyLeader)];
+    }
+
+    /**
+     * fallback
+     *
+     * The plan where there is no table: betray if the spies on the team are just enough to fail the mission, or the
+     * game depends on it, and otherwise betray only by a role that makes exactly the betrayals required.
+     * @return  The plan
+     */
+    private static int fallback(int mission, int failures, int spiesOnTeam, boolean spyLeader, int required){
+        if(spiesOnTeam < required){
+            return NONE;
+        }
+        if(spiesOnTeam == required || failures == 2 || mission - failures == 3){
+            return ALL;
+        }
+        if(spyLeader && required == 1){
+            return LEADER;
+        }
+        if(spyLeader && spiesOnTeam - 1 == required){
+            return NON_LEADERS;
+        }
+        return NONE;
+    }
+
+    /**
+     * betrays
+     *
+     * @param plan      A plan
+     * @param leader    Whether the spy is the leader
+     * @return          Whether a spy in that role betrays under the plan
+     */
+    public static boolean betrays(int plan, boolean leader){
+        return plan == ALL || plan == (leader ? LEADER : NON_LEADERS);
+    }
+
+    /**
+     * index
+     *
+     * @return  The position of a state in its table
+     */
+    private static int index(int spies, int mission, int failures, int bucket, int spiesOnTeam, boolean spyLeader){
+        return ((((mission - 1) * 3 + failures) * BUCKETS + bucket) * (spies + 1) + spiesOnTeam) * 2 + (spyLeader ? 1 : 0);
+    }
+
+    /**
+     * solve
+     *
+     * Backward induction from the last mission to the first.
+     * @param n     The number of players
+     * @return      The plan for every state
+     */
+    private static byte[] solve(int n){
+        int spies = Rules.STANDARD.spies(n);
+        byte[] plans = new byte[index(spies, 6, 0, 0, 0, false)];
+        // value[mission][failures][bucket] is the spies' chance to win before the team of mission is chosen
+        double[][][] value = new double[7][3][BUCKETS];
+        for(int mission = 5; mission >= 1; --mission){
+            int size = Rules.STANDARD.missionSize(n, mission);
+            int required = Rules.STANDARD.failsNeeded(n, mission);
+            for(int failures = 0; failures < 3; ++failures){
+                if(mission - 1 - failures >= 3){
+                    continue;
+                }
+                for(int bucket = 0; bucket < BUCKETS; ++bucket){
+                    double[] spyLed = team(n - 1, spies - 1, size - 1, 1.0);
+                    double[] resistanceLed = team(n - 1, spies, size - 1, spies / (spies + 2.0 * bucket));
+                    double v = 0;
+                    for(int s = 0; s <= spies; ++s){
+                        for(int leader = 0; leader < 2; ++leader){
+                            int best = NONE;
+                            double bestValue = -1;
+                            for(int plan = NONE; plan <= ALL; ++plan){
+                                int k = betrayals(plan, s, leader == 1);
+                                if(k < 0 || (k > 0 && k < required)){
+                                    continue;
+                                }
+                                double q = outcome(value, mission, failures + (k >= required ? 1 : 0), bucket + k);
+                                if(q >= bestValue - 1e-12){
+                                    best = plan;
+                                    bestValue = Math.max(q, bestValue);
+                                }
+                            }
+                            plans[index(spies, mission, failures, bucket, s, leader == 1)] = (byte)best;
+                            double p = leader == 1 ? spyLedTeam(spyLed, s, Math.min(required, size)) * spies / n : resistanceLed[s] * (n - spies) / n;
+                            v += p * bestValue;
+                        }
+                    }
+                    value[mission][failures][bucket] = v;
+                }
+            }
+        }
+        return plans;
+    }
+
+    /**
+     * betrayals
+     *
+     * @return  The number of spies that betray under a plan, or -1 if the plan does not fit the team
+     */
+    private static int betrayals(int plan, int spiesOnTeam, boolean spyLeader){
+        switch(plan){
+            case NONE: return 0;
+            case ALL: return spiesOnTeam > 0 ? spiesOnTeam : -1;
+            case LEADER: return spyLeader && spiesOnTeam > 1 ? 1 : -1;
+            default: return spyLeader && spiesOnTeam > 1 ? spiesOnTeam - 1 : -1;
+        }
+    }
+
+    /**
+     * outcome
+     *
+     * @return  The spies' chance to win once a mission is over
+     */
+    private static double outcome(double[][][] value, int mission, int failures, int betrayals){
+        if(failures == 3){
+            return 1;
+        }
+        if(mission - failures == 3){
+            return 0;
+        }
+        return value[mission + 1][failures][Math.min(betrayals, BUCKETS - 1)];
+    }
+
+    /**
+     * team
+     *
+     * The distribution of spies among picks drawn one at a time without replacement, each spy weighted against each
+     * resistance member.
+     * @param players   The players to draw from
+     * @param spies     The spies among them
+     * @param picks     The number drawn
+     * @param weight    The weight of a spy, 1 for a uniform draw
+     * @return          P(s spies drawn) for s from 0 to spies
+     */
+    private static double[] team(int players, int spies, int picks, double weight){
+        double[] p = new double[spies + 1];
+        p[0] = 1;
+        for(int drawn = 0; drawn < picks; ++drawn){
+            double[] next = new double[spies + 1];
+            for(int s = 0; s <= Math.min(drawn, spies); ++s){
+                if(p[s] == 0){
+                    continue;
+                }
+                double spyMass = (spies - s) * weight;
+                double resistanceMass = players - spies - (drawn - s);
+                double pSpy = spyMass / (spyMass + resistanceMass);
+                next[s] += p[s] * (1 - pSpy);
+                if(s < spies){
+                    next[s + 1] += p[s] * pSpy;
+                }
+            }
+            p = next;
+        }
+        return p;
+    }
+
+    /**
+     * spyLedTeam
+     *
+     * A spy leader is on the team with the spies it drew, but swaps in spies until there are as many as the mission
+     * needs to fail.
+     * @param drawn     P(s other spies drawn)
+     * @param s         The spies on the team, counting the leader
+     * @param needed    The spies the leader makes sure of
+     * @return          P(s spies on the team)
+     */
+    private static double spyLedTeam(double[] drawn, int s, int needed){
+        if(s < Math.max(needed, 1)){
+            return 0;
+        }
+        double p = drawn[s - 1];
+        if(s == needed){
+            for(int fewer = 0; fewer < s - 1; ++fewer){
+                p += drawn[fewer];
+            }
+        }
+        return p;
+    }
+
+    /**
+     * main
+     *
+     * Prints the plans by mission and spies on the team for the usual table sizes, taking each failed mission to have
+     * had one betrayal.
+     * @param args  Unused
+     */
+    public static void main(String[] args){
+        String[] names = {"-", "L", "N", "A"};
+        for(int n = 5; n <= Teams.MAX_PLAYERS; ++n){
+            System.out.println(n + " players (spies on team 1.. : resistance leader / spy leader)");
+            for(int mission = 1; mission <= 5; ++mission){
+                for(int failures = 0; failures < 3 && failures < mission; ++failures){
+                    if(mission - 1 - failures >= 3){
+                        continue;
+                    }
+                    StringBuilder line = new StringBuilder("  mission " + mission + ", " + failures + " failed:");
+                    int required = Rules.STANDARD.failsNeeded(n, mission);
+                    for(int s = 1; s <= Math.min(Rules.STANDARD.spies(n), Rules.STANDARD.missionSize(n, mission)); ++s){
+                        line.append(' ').append(names[plan(n, mission, failures, failures, s, false, required)]).append('/').append(names[plan(n, mission, failures, failures, s, true, required)]);
+                    }
+                    System.out.println(line);
+                }
+            }
+        }
+    }
+}
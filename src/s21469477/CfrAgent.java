@@ -0,0 +1,168 @@
+package s21469477;
+import cits3001_2016s2.*;
+import java.util.*;
+
+/**
+ * CfrAgent plays the strategy found by CfrSolver, read from the table CfrAgent.cfr (see CfrTable.load).
+ * Every decision is a lookup of the agent's abstract information set and a draw from its actions, so the agent takes
+ * the same small time however tight the limits are. Without a table file the agent solves a short run of the solver
+ * when the class loads, which takes a second or two.
+ * The table is solved for 5 players, and played by analogy on other tables.
+ */
+public class CfrAgent implements SelectiveAgent {
+    // Batches of the solver run when there is no table file, each of CfrSolver.CHUNKS chunks of FALLBACK_ITERATIONS
+    private static final int FALLBACK_BATCHES = 20;
+    private static final int FALLBACK_ITERATIONS = 200;
+    private static final CfrTable TABLE = table();
+
+    // Mixed strategies are sampled afresh in every game, so no seat plays a fixed pure strategy
+    private final Random random = new Random();
+    private int self = -1;
+    private int numPlayers;
+    private long spies;
+    private int[] taint;
+    private int missionNum;
+    private int numFailures;
+    private int proposals;
+    private int leader;
+    private long team;
+
+    /**
+     * table
+     *
+     * @return  The table file, or a short solve if there is none
+     */
+    private static CfrTable table(){
+        CfrTable table = CfrTable.load(CfrAgent.class);
+        if(table == null){
+            CfrSolver solver = new CfrSolver(0, FALLBACK_ITERATIONS);
+            solver.solve(FALLBACK_BATCHES, Runtime.getRuntime().availableProcessors(), null, FALLBACK_BATCHES);
+            table = solver.table();
+        }
+        return table;
+    }
+
+    /**
+     * ignores
+     *
+     * The team sent on a mission is the last one proposed, and votes and accusations are not part of the abstraction.
+     * @return  The get_ methods the agent does not need
+     */
+    @Override
+    public int ignores(){
+        return VOTES | MISSION | ACCUSATIONS;
+    }
+
+    /**
+     * Reports the current status, including players name, the name of all players, the names of the spies (if known), the mission number and the number of failed missions
+     *
+     * @param name     a string consisting of a single letter, the agent's names.
+     * @param players  a string consisting of one letter for everyone in the game.
+     * @param spies    a String consisting of the latter name of each spy, if the agent is a spy, or n questions marks where n is the number of spies allocated; this should be sufficient for the agent to determine if they are a spy or not.
+     * @param mission  the next mission to be launched
+     * @param failures the number of failed missions
+     */
+    @Override
+    public void get_status(String name, String players, String spies, int mission, int failures){
+        if(self < 0){
+            self = Teams.seat(name.charAt(0));
+            numPlayers = players.length();
+            taint = new int[numPlayers];
+            this.spies = spies.contains(name) ? Teams.longMask(spies) : 0;
+        }
+        missionNum = mission;
+        numFailures = failures;
+        proposals = 0;
+    }
+
+    /**
+     * Nominates a team by the strategy's template for the leader's information set.
+     *
+     * @param number   the number of agents to be sent
+     * @return a String containing the names of all the agents in a mission
+     */
+    @Override
+    public String do_Nominate(int number){
+        int slot = CfrTable.nominateSlot(self, spies, taint, numPlayers, missionNum, numFailures, proposals);
+        int action = TABLE.sample(slot, CfrTable.ACTIONS[spies == 0 ? CfrTable.NOMINATE_RESISTANCE : CfrTable.NOMINATE_SPY], random);
+        return Teams.of(CfrTable.team(action, self, spies, taint, number, numPlayers));
+    }
+
+    /**
+     * Provides information of a given mission.
+     *
+     * @param leader   the leader who proposed the mission
+     * @param mission  a String containing the names of all the agents in the mission
+     */
+    @Override
+    public void get_ProposedMission(String leader, String mission){
+        this.leader = Teams.seat(leader.charAt(0));
+        team = Teams.longMask(mission);
+        ++proposals;
+    }
+
+    /**
+     * Votes by the strategy for the voter's information set.
+     *
+     * @return true, if the agent votes for the mission, false, if they vote against it
+     */
+    @Override
+    public boolean do_Vote(){
+        int slot = CfrTable.voteSlot(self, spies, taint, team, leader, missionNum, numFailures, proposals - 1);
+        return TABLE.sample(slot, 2, random) == 1;
+    }
+
+    /**
+     * Ignored, see ignores.
+     */
+    @Override
+    public void get_Votes(String yays){
+    }
+
+    /**
+     * Ignored, see ignores.
+     */
+    @Override
+    public void get_Mission(String mission){
+    }
+
+    /**
+     * Betrays by the strategy for the spy's information set. Resistance never betrays.
+     *
+     * @return true if the agent betrays the mission
+     */
+    @Override
+    public boolean do_Betray(){
+        if(spies == 0){
+            return false;
+        }
+        return TABLE.sample(CfrTable.betraySlot(self, spies, taint, team, leader, missionNum, numFailures), 2, random) == 1;
+    }
+
+    /**
+     * Taints the members of a betrayed team, see CfrTable.observe.
+     *
+     * @param traitors the number of people on the mission who chose to betray
+     */
+    @Override
+    public void get_Traitors(int traitors){
+        CfrTable.observe(taint, self, spies != 0, team, traitors);
+    }
+
+    /**
+     * The agent makes no accusations.
+     *
+     * @return the empty String
+     */
+    @Override
+    public String do_Accuse(){
+        return "";
+    }
+
+    /**
+     * Ignored, see ignores.
+     */
+    @Override
+    public void get_Accusation(String accuser, String accused){
+    }
+}
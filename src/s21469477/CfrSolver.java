@@ -0,0 +1,417 @@
+package s21469477;
+import cits3001_2016s2.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * CfrSolver finds a strategy for the 5 player game by Monte Carlo counterfactual regret minimisation over the
+ * abstraction of CfrTable, and writes it as a table for CfrAgent.
+ *
+ * Each iteration deals the spies and the first leader at random and plays one sampled game for each seat in turn, with
+ * that seat exploring its actions and the others following the current strategy (outcome sampling). The game is
+ * played by the standard rules for 5 players, as Game plays it: the leader passes on after every nomination, a team
+ * needs a strict majority, and the 6th team of a mission goes without a vote. Accusations change nothing, so they are
+ * left out.
+ *
+ * Iterations run in batches of CHUNKS chunks. Every chunk is seeded by the solver seed and its number, reads the
+ * regrets as they were at the start of the batch and keeps its own changes, which are added in chunk order when the
+ * batch is done, with negative regrets then cut to zero as in CFR+. The chunks of a batch run on any number of
+ * threads, so a run gives the same strategy however many threads play it, and a run resumed from a checkpoint gives
+ * the same strategy as one that was never stopped.
+ *
+ * Sampled values are corrected against a baseline for every action, the mean payoff after it in recent batches, which
+ * keeps the variance of the estimates down over the many decisions of a game (VR-MCCFR).
+ */
+public class CfrSolver {
+    private static final int MAGIC = 0x43465243;
+    private static final int VERSION = 1;
+    private static final int PLAYERS = 5;
+    // The chance a seat exploring its actions picks one at random rather than by the strategy
+    private static final double EXPLORATION = 0.6;
+    // How far a baseline moves towards the mean payoff of a batch
+    private static final double BASELINE_RATE = 0.5;
+    /** The number of independently seeded chunks in a batch */
+    public static final int CHUNKS = 16;
+
+    private final long seed;
+    private final int chunkIterations;
+    private final double[] regret = new double[CfrTable.SIZE];
+    private final double[] average = new double[CfrTable.SIZE];
+    // The acting player's expected payoff after each action
+    private final double[] baseline = new double[CfrTable.SIZE];
+    private long batches = 0;
+
+    /**
+     * CfrSolver
+     *
+     * @param seed              The solver seed
+     * @param chunkIterations   The iterations of each chunk of a batch
+     */
+    public CfrSolver(long seed, int chunkIterations){
+        this.seed = seed;
+        this.chunkIterations = chunkIterations;
+    }
+
+    /**
+     * solve
+     *
+     * Runs batches on a pool of threads until the given number of batches have been run, saving a checkpoint every so
+     * many batches and after the last.
+     * @param totalBatches  The number of batches to have run
+     * @param threads       The number of threads
+     * @param checkpoint    The checkpoint file, or null for none
+     * @param every         The number of batches between checkpoints
+     */
+    public void solve(long totalBatches, int threads, File checkpoint, int every){
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try{
+            while(batches < totalBatches){
+                List<Future<Chunk>> chunks = new ArrayList<>();
+                for(int c = 0; c < CHUNKS; ++c){
+                    Chunk chunk = new Chunk(Game.roundSeed(seed, (int)(batches * CHUNKS + c)));
+                    chunks.add(pool.submit(chunk::call));
+                }
+                // Every chunk reads the regrets, so none are changed until all the chunks are done
+                List<Chunk> done = new ArrayList<>();
+                for(Future<Chunk> f : chunks){
+                    done.add(f.get());
+                }
+                double[] payoff = new double[CfrTable.SIZE];
+                int[] samples = new int[CfrTable.SIZE];
+                for(Chunk chunk : done){
+                    chunk.addTo(regret, average, payoff, samples);
+                }
+                for(int i = 0; i < regret.length; ++i){
+                    regret[i] = Math.max(regret[i], 0);
+                    if(samples[i] > 0){
+                        baseline[i] += BASELINE_RATE * (payoff[i] / samples[i] - baseline[i]);
+                    }
+                }
+                ++batches;
+                if(checkpoint != null && (batches % every == 0 || batches == totalBatches)){
+                    save(checkpoint);
+                }
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException e){
+            throw new RuntimeException("A solver chunk failed", e.getCause());
+        }
+        finally{
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * batches
+     *
+     * @return  The number of batches run
+     */
+    public long batches(){
+        return batches;
+    }
+
+    /**
+     * table
+     *
+     * @return  The average strategy over the batches run, uniform where an information set was never reached
+     */
+    public CfrTable table(){
+        double[] strategy = new double[CfrTable.SIZE];
+        for(int kind = 0; kind < CfrTable.ACTIONS.length; ++kind){
+            int actions = CfrTable.ACTIONS[kind];
+            for(int slot = CfrTable.offset(kind); slot < CfrTable.offset(kind + 1); slot += actions){
+                double total = 0;
+                for(int a = 0; a < actions; ++a){
+                    total += average[slot + a];
+                }
+                for(int a = 0; a < actions; ++a){
+                    strategy[slot + a] = total > 0 ? average[slot + a] / total : 1.0 / actions;
+                }
+            }
+        }
+        return CfrTable.of(strategy);
+    }
+
+    /**
+     * save
+     *
+     * Writes a checkpoint of the regrets, average strategy and baselines, through a temporary file synced to disk and moved over
+     * the last checkpoint, so a crash while saving leaves the last one whole.
+     * @param file  The checkpoint file
+     */
+    public void save(File file){
+        File tmp = new File(file.getPath() + ".tmp");
+        try{
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try{
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(seed);
+                out.writeInt(chunkIterations);
+                out.writeLong(batches);
+                out.writeInt(CfrTable.SIZE);
+                for(int i = 0; i < CfrTable.SIZE; ++i){
+                    out.writeDouble(regret[i]);
+                    out.writeDouble(average[i]);
+                    out.writeDouble(baseline[i]);
+                }
+                out.flush();
+                fos.getFD().sync();
+            }
+            finally{
+                fos.close();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException e){
+            // a failed checkpoint leaves the last one in place, and the solver carries on
+            System.out.println("Solver checkpoint after " + batches + " batches not saved: " + e);
+        }
+    }
+
+    /**
+     * resume
+     *
+     * @param file  A checkpoint file
+     * @return      The solver as it was when the checkpoint was saved
+     * @throws RuntimeException if the checkpoint cannot be read or is for another abstraction
+     */
+    public static CfrSolver resume(File file){
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new RuntimeException("Not a solver checkpoint: " + file);
+            }
+            CfrSolver solver = new CfrSolver(in.readLong(), in.readInt());
+            solver.batches = in.readLong();
+            if(in.readInt() != CfrTable.SIZE){
+                throw new RuntimeException("Checkpoint " + file + " is for another abstraction");
+            }
+            for(int i = 0; i < CfrTable.SIZE; ++i){
+                solver.regret[i] = in.readDouble();
+                solver.average[i] = in.readDouble();
+                solver.baseline[i] = in.readDouble();
+            }
+            return solver;
+        }
+        catch(IOException e){
+            throw new RuntimeException("Cannot read solver checkpoint " + file, e);
+        }
+    }
+
+    /**
+     * A chunk of iterations, which plays sampled games against the regrets as they were at the start of the batch.
+     */
+    private class Chunk {
+        private final Random random;
+        private final double[] regretDelta = new double[CfrTable.SIZE];
+        private final double[] averageDelta = new double[CfrTable.SIZE];
+        private final double[] payoff = new double[CfrTable.SIZE];
+        private final int[] samples = new int[CfrTable.SIZE];
+        // The decisions of the game being played, replayed backwards for the updates once its result is known
+        private final int[] nodePlayer = new int[512], nodeSlot = new int[512], nodeActions = new int[512], nodeAction = new int[512];
+        private final double[][] nodePolicy = new double[512][3];
+        private final double[] nodeSample = new double[512], nodeOpponentReach = new double[512], nodeSampleReach = new double[512];
+        private final double[] nodeSign = new double[512];
+        private int nodes;
+        private int traverser;
+        private long spies;
+        private double opponentReach, sampleReach;
+
+        Chunk(long seed){
+            random = new Random(seed);
+        }
+
+        Chunk call(){
+            for(int i = 0; i < chunkIterations; ++i){
+                spies = 0;
+                while(Long.bitCount(spies) < Game.spyNum(PLAYERS)){
+                    spies |= 1L << random.nextInt(PLAYERS);
+                }
+                int leader = random.nextInt(PLAYERS);
+                for(traverser = 0; traverser < PLAYERS; ++traverser){
+                    boolean spiesWon = play(leader);
+                    update(spiesWon == ((spies & 1L << traverser) != 0) ? 1 : -1);
+                }
+            }
+            return this;
+        }
+
+        void addTo(double[] regret, double[] average, double[] payoff, int[] samples){
+            for(int i = 0; i < CfrTable.SIZE; ++i){
+                regret[i] += regretDelta[i];
+                average[i] += averageDelta[i];
+                payoff[i] += this.payoff[i];
+                samples[i] += this.samples[i];
+            }
+        }
+
+        /**
+         * play
+         *
+         * Plays one sampled game, recording every decision.
+         * @param leader    The first leader
+         * @return          true if the spies won
+         */
+        private boolean play(int leader){
+            nodes = 0;
+            opponentReach = 1;
+            sampleReach = 1;
+            int[][] taint = new int[PLAYERS][PLAYERS];
+            int failures = 0, successes = 0;
+            for(int mission = 1; failures < 3 && successes < 3; ++mission){
+                int size = Game.missionSize(PLAYERS, mission);
+                long team = 0;
+                int proposer = leader;
+                for(int proposal = 0; proposal <= 5; ++proposal){
+                    proposer = leader;
+                    leader = (leader + 1) % PLAYERS;
+                    long view = spyView(proposer);
+                    int slot = CfrTable.nominateSlot(proposer, view, taint[proposer], PLAYERS, mission, failures, proposal);
+                    team = CfrTable.team(decide(proposer, slot, 3), proposer, view, taint[proposer], size, PLAYERS);
+                    if(proposal == 5){
+                        break;
+                    }
+                    int yays = 0;
+                    for(int c = 0; c < PLAYERS; ++c){
+                        if(decide(c, CfrTable.voteSlot(c, spyView(c), taint[c], team, proposer, mission, failures, proposal), 2) == 1){
+                            ++yays;
+                        }
+                    }
+                    if(yays > PLAYERS / 2){
+                        break;
+                    }
+                }
+                int traitors = 0;
+                for(long m = team & spies; m != 0; m &= m - 1){
+                    int c = Long.numberOfTrailingZeros(m);
+                    if(decide(c, CfrTable.betraySlot(c, spies, taint[c], team, proposer, mission, failures), 2) == 1){
+                        ++traitors;
+                    }
+                }
+                if(traitors >= Rules.STANDARD.failsNeeded(PLAYERS, mission)){
+                    ++failures;
+                }
+                else{
+                    ++successes;
+                }
+                for(int c = 0; c < PLAYERS; ++c){
+                    CfrTable.observe(taint[c], c, (spies & 1L << c) != 0, team, traitors);
+                }
+            }
+            return failures >= 3;
+        }
+
+        private long spyView(int player){
+            return (spies & 1L << player) != 0 ? spies : 0;
+        }
+
+        /**
+         * decide
+         *
+         * Samples a player's action, exploring if the player is the traverser, and records the decision.
+         * @return  The action
+         */
+        private int decide(int player, int slot, int actions){
+            double[] policy = nodePolicy[nodes];
+            double total = 0;
+            for(int a = 0; a < actions; ++a){
+                total += Math.max(regret[slot + a], 0);
+            }
+            for(int a = 0; a < actions; ++a){
+                policy[a] = total > 0 ? Math.max(regret[slot + a], 0) / total : 1.0 / actions;
+            }
+            double explore = player == traverser ? EXPLORATION : 0;
+            double r = random.nextDouble();
+            int action = actions - 1;
+            for(int a = 0; a < actions - 1; ++a){
+                r -= explore / actions + (1 - explore) * policy[a];
+                if(r < 0){
+                    action = a;
+                    break;
+                }
+            }
+            double sample = explore / actions + (1 - explore) * policy[action];
+            nodePlayer[nodes] = player;
+            nodeSlot[nodes] = slot;
+            nodeActions[nodes] = actions;
+            nodeAction[nodes] = action;
+            nodeSample[nodes] = sample;
+            nodeOpponentReach[nodes] = opponentReach;
+            nodeSampleReach[nodes] = sampleReach;
+            nodeSign[nodes] = ((spies >> player & 1) == (spies >> traverser & 1)) ? 1 : -1;
+            ++nodes;
+            if(player != traverser){
+                opponentReach *= policy[action];
+            }
+            sampleReach *= sample;
+            return action;
+        }
+
+        /**
+         * update
+         *
+         * Walks the recorded decisions back from the end of the game, estimating the traverser's value after each action
+         * from the baselines and the sampled value, and adding the traverser's sampled regrets and the others' weighted
+         * strategies.
+         * @param utility   The traverser's payoff, 1 for a win and -1 for a loss
+         */
+        private void update(double utility){
+            double value = utility;
+            double[] values = new double[3];
+            for(int n = nodes - 1; n >= 0; --n){
+                int slot = nodeSlot[n], actions = nodeActions[n], action = nodeAction[n];
+                double[] policy = nodePolicy[n];
+                double sign = nodeSign[n];
+                double expected = 0;
+                for(int a = 0; a < actions; ++a){
+                    values[a] = sign * baseline[slot + a];
+                    if(a == action){
+                        values[a] += (value - values[a]) / nodeSample[n];
+                    }
+                    expected += policy[a] * values[a];
+                }
+                double weight = nodeOpponentReach[n] / nodeSampleReach[n];
+                if(nodePlayer[n] == traverser){
+                    for(int a = 0; a < actions; ++a){
+                        regretDelta[slot + a] += (values[a] - expected) * weight;
+                    }
+                }
+                else{
+                    for(int a = 0; a < actions; ++a){
+                        averageDelta[slot + a] += policy[a] * weight;
+                    }
+                }
+                payoff[slot + action] += sign * utility;
+                ++samples[slot + action];
+                value = expected;
+            }
+        }
+    }
+
+    /**
+     * main
+     *
+     * Solves the game and writes the table, resuming from the checkpoint if there is one.
+     * @param args  The number of batches (1000 by default), the iterations per chunk (1000), the number of threads
+     *              (all processors), the output file (CfrAgent.cfr) and the checkpoint file (CfrAgent.checkpoint)
+     */
+    public static void main(String[] args) throws IOException{
+        long total = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Path out = Paths.get(args.length > 3 ? args[3] : CfrAgent.class.getSimpleName() + ".cfr");
+        File checkpoint = new File(args.length > 4 ? args[4] : CfrAgent.class.getSimpleName() + ".checkpoint");
+        CfrSolver solver = checkpoint.exists() ? resume(checkpoint) : new CfrSolver(new Random().nextLong(), iterations);
+        while(solver.batches() < total){
+            solver.solve(Math.min(total, solver.batches() + 10), threads, checkpoint, 10);
+            System.out.println("Solved " + solver.batches() + " of " + total + " batches");
+        }
+        solver.table().write(out);
+    }
+}
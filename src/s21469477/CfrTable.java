@@ -0,0 +1,328 @@
+package s21469477;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Random;
+
+/**
+ * CfrTable holds a strategy for the game over an abstraction of its information sets, as found by CfrSolver, and the
+ * abstraction itself, so the solver and CfrAgent see a state the same way.
+ *
+ * A player's information set is abstracted to the mission, the failed missions, the proposal within the mission and a
+ * few counts of what the player can see: how tainted each player is by failed missions (see observe), whether they
+ * are on the proposed team, and, for spies, how many spies are on it. Teams are nominated by a few
+ * templates over the players ranked by taint, such as the leader and the least tainted others. The features do not
+ * depend on the table size, so a strategy solved for 5 players can be played on any table.
+ *
+ * Layout (big endian): magic, version, then a float for every action of every information set, grouped by kind
+ *      nominations by resistance, nominations by spies, votes by resistance, votes by spies, betrayals
+ * holding the probability of the action.
+ */
+public class CfrTable {
+    private static final int MAGIC = 0x43465231;
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+
+    /** The kinds of decision */
+    static final int NOMINATE_RESISTANCE = 0, NOMINATE_SPY = 1, VOTE_RESISTANCE = 2, VOTE_SPY = 3, BETRAY = 4;
+    /** The number of actions of each kind: three team templates, no or yes to a vote, no or yes to betraying */
+    static final int[] ACTIONS = {3, 3, 2, 2, 2};
+    // Information sets of each kind, the product of the ranges of their features
+    private static final int[] SETS = {5 * 3 * 6 * 5, 5 * 3 * 6 * 3 * 3, 5 * 3 * 5 * 2 * 3 * 2, 5 * 3 * 5 * 3 * 2, 5 * 3 * 2 * 2 * 3};
+    private static final int[] OFFSET = new int[SETS.length];
+    /** The number of actions over every information set */
+    static final int SIZE;
+
+    static {
+        int offset = 0;
+        for(int kind = 0; kind < SETS.length; ++kind){
+            OFFSET[kind] = offset;
+            offset += SETS[kind] * ACTIONS[kind];
+        }
+        SIZE = offset;
+    }
+
+    private final ByteBuffer table;
+
+    /**
+     * offset
+     *
+     * @param kind  A kind of decision, or the number of kinds for the end of the table
+     * @return      The first action of the first information set of the kind
+     */
+    static int offset(int kind){
+        return kind < OFFSET.length ? OFFSET[kind] : SIZE;
+    }
+
+    private CfrTable(ByteBuffer table){
+        this.table = table;
+    }
+
+    /**
+     * of
+     *
+     * @param strategy  The probability of every action, SIZE of them
+     * @return          A table of the strategy, held in memory
+     */
+    static CfrTable of(double[] strategy){
+        ByteBuffer table = ByteBuffer.allocate(HEADER + 4 * SIZE);
+        table.putInt(0, MAGIC).putInt(4, VERSION);
+        for(int i = 0; i < SIZE; ++i){
+            table.putFloat(HEADER + 4 * i, (float)strategy[i]);
+        }
+        return new CfrTable(table);
+    }
+
+    /**
+     * load
+     *
+     * Memory maps the table of an agent class, <i>SimpleName</i>.cfr in the directory given by the s21469477.book.dir
+     * system property (the working directory by default).
+     * @param agent     The agent class
+     * @return          The table, or null if there is no valid table
+     */
+    public static CfrTable load(Class<?> agent){
+        Path path = Paths.get(System.getProperty("s21469477.book.dir", "."), agent.getSimpleName() + ".cfr");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(channel.size() != HEADER + 4L * SIZE){
+                return null;
+            }
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER + 4L * SIZE);
+            if(table.getInt(0) != MAGIC || table.getInt(4) != VERSION){
+                return null;
+            }
+            return new CfrTable(table);
+        }
+        catch(IOException | RuntimeException e){
+            return null;
+        }
+    }
+
+    /**
+     * write
+     *
+     * Writes the table to a file, through a temporary file so a reader never maps half a table.
+     * @param out   The file
+     */
+    public void write(Path out) throws IOException{
+        byte[] bytes = new byte[HEADER + 4 * SIZE];
+        table.duplicate().position(0).get(bytes);
+        Path tmp = Paths.get(out + ".tmp");
+        Files.write(tmp, bytes);
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * probability
+     *
+     * @param slot  The first action of an information set plus the action
+     * @return      The probability the strategy takes the action
+     */
+    public double probability(int slot){
+        return table.getFloat(HEADER + 4 * slot);
+    }
+
+    /**
+     * sample
+     *
+     * @param slot      The first action of an information set
+     * @param actions   The number of actions
+     * @param random    The source of randomness
+     * @return          An action drawn from the strategy
+     */
+    public int sample(int slot, int actions, Random random){
+        double r = random.nextDouble();
+        for(int a = 0; a < actions - 1; ++a){
+            r -= probability(slot + a);
+            if(r < 0){
+                return a;
+            }
+        }
+        return actions - 1;
+    }
+
+    /**
+     * observe
+     *
+     * Taints the members of a team after a mission, as one player sees them. Each member of a betrayed team gets a
+     * taint, up to 2, except that a resistance player knows itself innocent, so when the traitors are as many as the
+     * other members of the team they are all certain spies and get the most taint at once.
+     * @param taint     The taint of each player as the viewer sees it
+     * @param viewer    The viewer's seat
+     * @param spy       Whether the viewer is a spy, who sees only what everyone sees
+     * @param team      Mask of the mission team
+     * @param traitors  The number of betrayals
+     */
+    static void observe(int[] taint, int viewer, boolean spy, long team, int traitors){
+        if(traitors == 0){
+            return;
+        }
+        long others = spy ? team : team & ~(1L << viewer);
+        boolean certain = !spy && Long.bitCount(others) == traitors;
+        for(long m = others; m != 0; m &= m - 1){
+            int i = Long.numberOfTrailingZeros(m);
+            taint[i] = certain ? 2 : Math.min(taint[i] + 1, 2);
+        }
+    }
+
+    /**
+     * nominateSlot
+     *
+     * @param self          The leader's seat
+     * @param spies         Mask of the spies if the leader is a spy, 0 if resistance
+     * @param taint         The taint of each player as the deciding player sees it
+     * @param numPlayers    The number of players
+     * @param mission       The mission, from 1 to 5
+     * @param failures      The number of failed missions
+     * @param proposal      The proposal within the mission, from 0 (the 6th is sent without a vote)
+     * @return              The first action of the leader's information set
+     */
+    static int nominateSlot(int self, long spies, int[] taint, int numPlayers, int mission, int failures, int proposal){
+        int base = state(mission, failures) * 6 + Math.min(proposal, 5);
+        if(spies == 0){
+            int tainted = 0;
+            for(int i = 0; i < numPlayers; ++i){
+                if(i != self && taint[i] > 0){
+                    ++tainted;
+                }
+            }
+            return OFFSET[NOMINATE_RESISTANCE] + (base * 5 + Math.min(tainted, 4)) * ACTIONS[NOMINATE_RESISTANCE];
+        }
+        int partnerTaint = 2;
+        for(int i = 0; i < numPlayers; ++i){
+            if(i != self && (spies & 1L << i) != 0){
+                partnerTaint = Math.min(partnerTaint, taint[i]);
+            }
+        }
+        return OFFSET[NOMINATE_SPY] + ((base * 3 + Math.min(taint[self], 2)) * 3 + Math.min(partnerTaint, 2)) * ACTIONS[NOMINATE_SPY];
+    }
+
+    /**
+     * voteSlot
+     *
+     * @param self          The voter's seat
+     * @param spies         Mask of the spies if the voter is a spy, 0 if resistance
+     * @param taint         The taint of each player as the deciding player sees it
+     * @param team          Mask of the proposed team
+     * @param leader        The leader's seat
+     * @param mission       The mission, from 1 to 5
+     * @param failures      The number of failed missions
+     * @param proposal      The proposal within the mission, from 0 to 4
+     * @return              The first action of the voter's information set
+     */
+    static int voteSlot(int self, long spies, int[] taint, long team, int leader, int mission, int failures, int proposal){
+        int base = state(mission, failures) * 5 + Math.min(proposal, 4);
+        int onTeam = (team & 1L << self) != 0 ? 1 : 0;
+        if(spies == 0){
+            int teamTaint = 0;
+            for(long m = team & ~(1L << self); m != 0; m &= m - 1){
+                teamTaint += taint[Long.numberOfTrailingZeros(m)];
+            }
+            int leaderTainted = leader != self && taint[leader] > 0 ? 1 : 0;
+            return OFFSET[VOTE_RESISTANCE] + ((base * 2 + onTeam) * 3 + Math.min(teamTaint, 2)) * 2 * ACTIONS[VOTE_RESISTANCE] + leaderTainted * ACTIONS[VOTE_RESISTANCE];
+        }
+        return OFFSET[VOTE_SPY] + ((base * 3 + Math.min(Long.bitCount(team & spies), 2)) * 2 + onTeam) * ACTIONS[VOTE_SPY];
+    }
+
+    /**
+     * betraySlot
+     *
+     * @param self          The spy's seat
+     * @param spies         Mask of the spies
+     * @param taint         The taint of each player as the deciding player sees it
+     * @param team          Mask of the mission team
+     * @param leader        The leader's seat
+     * @param mission       The mission, from 1 to 5
+     * @param failures      The number of failed missions
+     * @return              The first action of the spy's information set
+     */
+    static int betraySlot(int self, long spies, int[] taint, long team, int leader, int mission, int failures){
+        int spiesOnTeam = Math.max(1, Math.min(Long.bitCount(team & spies), 2));
+        return OFFSET[BETRAY] + (((state(mission, failures) * 2 + spiesOnTeam - 1) * 2 + (leader == self ? 1 : 0)) * 3 + Math.min(taint[self], 2)) * ACTIONS[BETRAY];
+    }
+
+    /**
+     * team
+     *
+     * Builds a team from a nomination template. The resistance templates are the leader with the least tainted others,
+     * the same with the last of them swapped for the next, and the least tainted others without the leader. The spy
+     * templates are the leader with the least tainted resistance, the leader with another spy and the least tainted
+     * resistance, and the least tainted resistance alone. Ties in taint go to the players seated nearest after the
+     * leader.
+     * @param action        The template
+     * @param self          The leader's seat
+     * @param spies         Mask of the spies if the leader is a spy, 0 if resistance
+     * @param taint         The taint of each player as the deciding player sees it
+     * @param size          The size of the team
+     * @param numPlayers    The number of players
+     * @return              Mask of the team
+     */
+    static long team(int action, int self, long spies, int[] taint, int size, int numPlayers){
+        int[] order = ranked(self, taint, numPlayers);
+        long team = 0;
+        if(spies == 0){
+            if(action != 2){
+                team |= 1L << self;
+            }
+            int skip = action == 1 && size >= 2 ? size - 2 : -1;
+            for(int i = 0; i < order.length && Long.bitCount(team) < size; ++i){
+                if(i != skip){
+                    team |= 1L << order[i];
+                }
+            }
+            return team;
+        }
+        if(action != 2){
+            team |= 1L << self;
+        }
+        if(action == 1){
+            for(int i : order){
+                if((spies & 1L << i) != 0){
+                    team |= 1L << i;
+                    break;
+                }
+            }
+        }
+        for(int i : order){
+            if(Long.bitCount(team) < size && (spies & 1L << i) == 0){
+                team |= 1L << i;
+            }
+        }
+        // Too few resistance for the template, so anyone left fills the team
+        for(int i : order){
+            if(Long.bitCount(team) < size){
+                team |= 1L << i;
+            }
+        }
+        return team;
+    }
+
+    /**
+     * ranked
+     *
+     * @return  The seats other than self, least tainted first, then nearest after self
+     */
+    private static int[] ranked(int self, int[] taint, int numPlayers){
+        int[] order = new int[numPlayers - 1];
+        int n = 0;
+        for(int t = 0; t <= 2; ++t){
+            for(int d = 1; d < numPlayers; ++d){
+                int i = (self + d) % numPlayers;
+                if(Math.min(taint[i], 2) == t){
+                    order[n++] = i;
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * state
+     *
+     * @return  The mission and failures as one index, with decided games folded into the last states
+     */
+    private static int state(int mission, int failures){
+        return (Math.max(1, Math.min(mission, 5)) - 1) * 3 + Math.min(failures, 2);
+    }
+}
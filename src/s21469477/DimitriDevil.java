@@ -1,6 +1,7 @@
 package s21469477;
 import cits3001_2016s2.*;
 import java.util.*;
+import java.util.function.LongToDoubleFunction;
 import java.io.*;
 
 /**
@@ -10,7 +11,7 @@ import java.io.*;
  * fairly basic spy behaviour.
  *
  */
-public class DimitriDevil implements Agent{
+public class DimitriDevil implements SelectiveAgent, AccusationBatchAgent, DeadlineAgent, PonderingAgent{
     private String name;
     private String players = "";
     private String playersExcludeSelf = "";
@@ -23,12 +24,23 @@ public class DimitriDevil implements Agent{
     private int numResistance;
     private int minSpiesRequired;
     private int numFailures;
+    // Betrayals seen in earlier missions, which is how exposed the spies are
+    private int numBetrayals;
+    // The round's accusations by accuser seat, held until the next nomination so they are one update (see fuseAccusations)
+    private long[] pendingAccusations = new long[0];
+    private long pendingAccusers;
+    // How much more likely a resistance accuser is to accuse each spy than each resistance member
+    private static final double ACCUSATION_TRUST = 1.5;
     private boolean statCheck = false;
 
-    private static double RANDOM_PLAY = 0.1;
-    private static double BETRAYAL_BLUNDER = 0.2;
-    private static double RESISTANCE_YAY = 0.5;
-    private static double VOTING_BLUNDER = 0.2;
+    // Tuning parameters, DEFAULTS unless the agent is a parameterised variant
+    private static final double[] DEFAULTS = {0.1, 0.2, 0.5, 0.2};
+    private final double RANDOM_PLAY;
+    private final double BETRAYAL_BLUNDER;
+    private final double RESISTANCE_YAY;
+    private final double VOTING_BLUNDER;
+    // Mixed into the history hash, so variants with different parameters never share cached posteriors
+    private final long parameterHash;
 
     private String currProposedTeam;
     // Am I a spy?
@@ -41,12 +53,70 @@ public class DimitriDevil implements Agent{
     // Suspicion container
     private ArrayList<PBlock> suspicion = new ArrayList<>();
     private ArrayList<PBlock> missionTeams = new ArrayList<>();
+    // Hash of the public history so far, and the posteriors other instances reached from the same history
+    private long history;
+    private static final PosteriorCache POSTERIORS = new PosteriorCache("DimitriDevil", 32L << 20);
+    // Opening decisions, precomputed by OpeningBook.main; null if there is no book
+    private static final OpeningBook BOOK = OpeningBook.load(DimitriDevil.class);
+    // The book was generated with the default parameters, so variants compute their openings
+    private final OpeningBook book;
+    // missionTeams is only worked out when a vote needs it
+    private boolean missionTeamsStale;
+    // Beyond this many candidate teams, decisions are made on a fixed random sample of them,
+    // which keeps every call within its time limit on large tables
+    private static final int MAX_TEAMS = 500;
+    // Beyond this many spy combinations the belief is a particle filter with this many particles, moved this many times
+    // after each resampling. Set by the s21469477.particles and s21469477.particle.moves properties, to trade accuracy for time per call.
+    private static final int PARTICLES = Integer.getInteger("s21469477.particles", 2000);
+    private static final int PARTICLE_MOVES = Integer.getInteger("s21469477.particle.moves", 1);
+    private ParticleFilter particles;
+    // When the do_ call under way must return, as told by the game
+    private long deadline;
+    // How many times a sampled nomination may double its sample of teams while the deadline allows, set by the
+    // s21469477.anytime.levels property. 0 by default, so the agent does a fixed amount of work and games replay exactly.
+    private static final int ANYTIME_LEVELS = Math.min(Integer.getInteger("s21469477.anytime.levels", 0), 16);
+    // Time left unused before the deadline, for the rest of the call and the game's timing
+    private static final long ANYTIME_RESERVE = 200_000_000L;
+    // Whether the last nomination considered every team, so a larger sample cannot improve it
+    private boolean nominationExhaustive;
     //private int suspicionSize[] = {10, 15, 35, 56, 84, 210};
     //private int suspicionDiscountSelf[] = {6, 10, 20, 35, 56, 126};
 
     // Printing out
     public DimitriDevil(){
+        this(DEFAULTS);
+    }
+
+    /**
+     * DimitriDevil constructor
+     *
+     * @param params    RANDOM_PLAY, BETRAYAL_BLUNDER, RESISTANCE_YAY and VOTING_BLUNDER, in that order
+     *                  (see defaultParameters)
+     */
+    public DimitriDevil(double[] params){
+        if(params.length != DEFAULTS.length){
+            throw new RuntimeException("DimitriDevil takes " + DEFAULTS.length + " parameters, not " + params.length);
+        }
         this.display = System.out;
+        this.RANDOM_PLAY = params[0];
+        this.BETRAYAL_BLUNDER = params[1];
+        this.RESISTANCE_YAY = params[2];
+        this.VOTING_BLUNDER = params[3];
+        long hash = 0xcbf29ce484222325L;
+        for(double param : params){
+            hash = (hash ^ Double.doubleToLongBits(param)) * 0x100000001b3L;
+        }
+        this.parameterHash = hash;
+        this.book = Arrays.equals(params, DEFAULTS) ? BOOK : null;
+    }
+
+    /**
+     * defaultParameters
+     *
+     * @return      A copy of the parameters the plain constructor uses
+     */
+    public static double[] defaultParameters(){
+        return DEFAULTS.clone();
     }
     private void write(String s){
         display.println(s);
@@ -58,16 +128,16 @@ public class DimitriDevil implements Agent{
      * Probability function helper, determines how many unique options of size k can be derived from something size n
      * @param n     The integer representing the pool size from which options are being extracted
      * @param k     The integer size k which determines the size of the combinations being looked for inside of n
-     * @return      Integer representing the number of unique options possible
+     * @return      The number of unique options possible, as a double since it overflows an int on large tables
      */
-    private int nChooseK(int n, int k){
+    private double nChooseK(int n, int k){
         if( k < 0 || k > n){
             return 0;
         }
         if(k > n/2){
             k = n - k;
         }
-        int answer = 1;
+        double answer = 1;
         for(int i = 1; i <= k; ++i){
             answer *= (n + 1 - i);
             answer /= i;
@@ -79,15 +149,14 @@ public class DimitriDevil implements Agent{
      * getSortedString
      *
      * Helper function to sort Java strings.
-     * O(nlgn)
+     * Player names are looked up in the game's shared table of sorted teams, so no new String is made.
+     * O(n)
      *
      * @param unsorted      The unsorted string input.
      * @return              A sorted String
      */
     private String getSortedString(String unsorted){
-        char charArray[] = unsorted.toCharArray();
-        Arrays.sort(charArray);
-        return String.valueOf(charArray);
+        return Teams.canonical(unsorted);
     }
 
     /**
@@ -95,65 +164,118 @@ public class DimitriDevil implements Agent{
      *
      * Helper function to build all combinations of players of specified
      * size along with initialising the combination's suspicion level.
+     * If there are more than MAX_TEAMS combinations a sample of them is built instead.
+     * @return      true if every combination was built, false if they were sampled
      */
-    private void getPlayerCombinations(ArrayList<PBlock> suspicion, String relevantPlayers, int groupSize){
+    private boolean getPlayerCombinations(ArrayList<PBlock> suspicion, String relevantPlayers, int groupSize){
+        return getPlayerCombinations(suspicion, relevantPlayers, groupSize, MAX_TEAMS);
+    }
+
+    /**
+     * getPlayerCombinations
+     *
+     * Helper function to build all combinations of players of specified size, or a sample of limit of them
+     * if there are more than limit combinations.
+     * @param limit     The most combinations to build
+     * @return          true if every combination was built, false if they were sampled
+     */
+    private boolean getPlayerCombinations(ArrayList<PBlock> suspicion, String relevantPlayers, int groupSize, int limit){
         int nPlayers = relevantPlayers.length();
-        if(groupSize < 1 || groupSize > 5 || groupSize > nPlayers || nPlayers > numPlayers) throw new RuntimeException("Choosing " + groupSize + " players from " + relevantPlayers + " total is inappropriate");
+        if(groupSize < 1 || groupSize > nPlayers || nPlayers > numPlayers) throw new RuntimeException("Choosing " + groupSize + " players from " + relevantPlayers + " total is inappropriate");
         //Sort the players string as not guaranteed
-        char playerArr[] = relevantPlayers.toUpperCase().toCharArray();
+        char playerArr[] = relevantPlayers.toCharArray();
         Arrays.sort(playerArr);
 
-        StringBuilder playerCombo = new StringBuilder();
-        // Combinations are at a minimum size 2 and maximum size 5
-        for(int i = 0; i < nPlayers; ++i) {
-            // group of 1
-            if (groupSize == 1) {
-                playerCombo.setLength(0);
-                playerCombo.append(playerArr[i]);
-                suspicion.add(new PBlock(playerCombo.toString(), 0.0));
+        if(nChooseK(nPlayers, groupSize) > limit){
+            samplePlayerCombinations(suspicion, playerArr, groupSize, limit);
+            return false;
+        }
+        addPlayerCombinations(suspicion, playerArr, groupSize, 0, new StringBuilder());
+        return true;
+    }
+
+    /**
+     * addPlayerCombinations
+     *
+     * Adds every combination that extends playerCombo with players from index start on, in alphabetical order.
+     */
+    private void addPlayerCombinations(ArrayList<PBlock> suspicion, char[] playerArr, int groupSize, int start, StringBuilder playerCombo){
+        if(playerCombo.length() == groupSize){
+            suspicion.add(new PBlock(playerCombo.toString(), 0.0));
+            return;
+        }
+        for(int i = start; i <= playerArr.length - groupSize + playerCombo.length(); ++i){
+            playerCombo.append(playerArr[i]);
+            addPlayerCombinations(suspicion, playerArr, groupSize, i + 1, playerCombo);
+            playerCombo.setLength(playerCombo.length() - 1);
+        }
+    }
+
+    /**
+     * samplePlayerCombinations
+     *
+     * Adds count distinct combinations drawn uniformly at random. The draws are seeded by the players and group size,
+     * so every instance considers the same teams and games can be replayed.
+     */
+    private void samplePlayerCombinations(ArrayList<PBlock> suspicion, char[] playerArr, int groupSize, int count){
+        Random random = new Random(31L * new String(playerArr).hashCode() + groupSize);
+        HashSet<Long> drawn = new HashSet<>();
+        int[] order = new int[playerArr.length];
+        char[] combo = new char[groupSize];
+        while(drawn.size() < count){
+            long key = 0;
+            for(int i = 0; i < order.length; ++i){
+                order[i] = i;
             }
-            else{
-                //groups >= 2
-                for (int j = i + 1; j < nPlayers; ++j) {
-                    // groups of 2
-                    if (groupSize == 2) {
-                        playerCombo.setLength(0);
-                        playerCombo.append(playerArr[i]).append(playerArr[j]);
-                        suspicion.add(new PBlock(playerCombo.toString(), 0.0));
-                    }
-                    else{
-                        // groups >= 3
-                        for (int k = j + 1; k < nPlayers; ++k) {
-                            if (groupSize == 3) {
-                                playerCombo.setLength(0);
-                                playerCombo.append(playerArr[i]).append(playerArr[j]).append(playerArr[k]);
-                                suspicion.add(new PBlock(playerCombo.toString(), 0.0));
-                            }
-                            else{
-                                // group >= 4
-                                for (int l = k + 1; l < nPlayers; ++l) {
-                                    if (groupSize == 4) {
-                                        playerCombo.setLength(0);
-                                        playerCombo.append(playerArr[i]).append(playerArr[j]).append(playerArr[k]).append(playerArr[l]);
-                                        suspicion.add(new PBlock(playerCombo.toString(), 0.0));
-                                    }
-                                    else{
-                                        // group of 5
-                                        for (int m = l + 1; m < nPlayers; ++m) {
-                                            playerCombo.setLength(0);
-                                            playerCombo.append(playerArr[i]).append(playerArr[j]).append(playerArr[k]).append(playerArr[l]).append(playerArr[m]);
-                                            suspicion.add(new PBlock(playerCombo.toString(), 0.0));
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+            // Partial shuffle picks groupSize distinct players
+            for(int i = 0; i < groupSize; ++i){
+                int j = i + random.nextInt(order.length - i);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+                key |= 1L << order[i];
+                combo[i] = playerArr[order[i]];
+            }
+            if(drawn.add(key)){
+                suspicion.add(new PBlock(new String(combo), 0.0));
             }
         }
     }
 
+    /**
+     * The elected team is taken from the last proposed mission, so the game can skip get_Mission.
+     *
+     * @return the callbacks this agent ignores
+     */
+    @Override
+    public int ignores(){
+        return MISSION;
+    }
+
+    /**
+     * get_Deadline
+     *
+     * @param deadline  The System.nanoTime() the coming do_ call must return by
+     */
+    @Override
+    public void get_Deadline(long deadline){
+        this.deadline = deadline;
+    }
+
+    /**
+     * ponder
+     *
+     * Builds the mission teams for a vote on the proposed team while the other players are called,
+     * so do_Vote finds them ready. The teams only depend on the suspicion after the proposal, so votes are unchanged.
+     * @param ponderer  The game's ponderer for this agent
+     */
+    @Override
+    public void ponder(Ponderer ponderer){
+        if(missionTeamsStale && !currLeader.equals(name) && !ponderer.cancelled()){
+            considerMissionTeams();
+        }
+    }
+
     /**
      * Reports the current status, including players name, the name of all players, the names of the spies (if known), the mission number and the number of failed missions
      *
@@ -177,6 +299,8 @@ public class DimitriDevil implements Agent{
             // Spy string provided from Game
             this.spies = spies;
             this.numSpies = spies.length();
+            this.pendingAccusations = new long[numPlayers];
+            this.pendingAccusers = 0;
             this.numResistance = numPlayers - numSpies;
 
             // If spy string contains my name, I'm a spy
@@ -188,11 +312,24 @@ public class DimitriDevil implements Agent{
                 this.resistanceMembers = characterRelativeComplement(players, spies);
             }
             // Initialise suspicion with equal probability for all combinations.
-            getPlayerCombinations(suspicion, players, numSpies);
-            for (PBlock spyCombo : suspicion) {
-                spyCombo.suspicion = 1.0/(double)(nChooseK(numPlayers, numSpies));
+            // The particles are seeded by the table, so every instance tracks the same particles.
+            if(nChooseK(numPlayers, numSpies) > PARTICLES){
+                particles = new ParticleFilter(numPlayers, numSpies, PARTICLES, players.hashCode());
+                particles.setMoves(PARTICLE_MOVES);
+                for(int i = 0; i < particles.size(); ++i){
+                    suspicion.add(new PBlock(composition(particles.particle(i)), particles.weight(i)));
+                }
+            }
+            else{
+                getPlayerCombinations(suspicion, players, numSpies, Integer.MAX_VALUE);
+                for (PBlock spyCombo : suspicion) {
+                    spyCombo.suspicion = 1.0/nChooseK(numPlayers, numSpies);
+                }
             }
+            history = numPlayers ^ parameterHash;
         }
+        extendHistory('S', mission);
+        extendHistory('F', failures);
 
         // Update mission number every round
         this.missionNum = mission;
@@ -205,6 +342,72 @@ public class DimitriDevil implements Agent{
         this.minSpiesRequired = (missionNum == 4 && numPlayers > 6) ? 2 : 1;
     }
 
+    /**
+     * extendHistory
+     *
+     * Adds a public event to the hash of the public history (FNV-1a over the event's tag and details).
+     * @param tag       Character identifying the kind of event
+     * @param detail    The event's details
+     */
+    private void extendHistory(char tag, String detail){
+        history = (history ^ tag) * 0x100000001b3L;
+        for(int i = 0; i < detail.length(); ++i){
+            history = (history ^ detail.charAt(i)) * 0x100000001b3L;
+        }
+    }
+
+    private void extendHistory(char tag, int detail){
+        history = (history ^ tag) * 0x100000001b3L;
+        history = (history ^ detail) * 0x100000001b3L;
+    }
+
+    /**
+     * recallPosterior
+     *
+     * Copies the posterior for the current public history into the suspicion array, if another agent has cached it.
+     * The posterior only depends on public information, so it is the same for every instance, spy or resistance.
+     * Particle filters are not cached.
+     * @return      true if the posterior was recalled, false if it must be computed and stored
+     */
+    private boolean recallPosterior(){
+        if(particles != null){
+            return false;
+        }
+        double[] posterior = POSTERIORS.get(history);
+        if(posterior == null || posterior.length != suspicion.size()){
+            return false;
+        }
+        for(int i = 0; i < posterior.length; ++i){
+            suspicion.get(i).suspicion = posterior[i];
+        }
+        return true;
+    }
+
+    /**
+     * storePosterior
+     *
+     * Caches the suspicion array as the posterior for the current public history.
+     */
+    private void storePosterior(){
+        if(particles != null){
+            return;
+        }
+        double[] posterior = new double[suspicion.size()];
+        for(int i = 0; i < posterior.length; ++i){
+            posterior[i] = suspicion.get(i).suspicion;
+        }
+        POSTERIORS.put(history, posterior);
+    }
+
+    /**
+     * posteriorCache
+     *
+     * @return      The posterior cache shared by all instances, for metrics
+     */
+    public static PosteriorCache posteriorCache(){
+        return POSTERIORS;
+    }
+
     /**
      * characterIntersection
      *
@@ -235,6 +438,39 @@ public class DimitriDevil implements Agent{
         return found.toString();
     }
 
+    /**
+     * seatMask
+     *
+     * Helper method to represent a set of players as a bit mask over their positions in the players string,
+     * so sets can be intersected and counted without building Strings.
+     * @param team      String of player names
+     * @return mask     Bit i set if the i-th player is in team
+     */
+    private long seatMask(String team){
+        long mask = 0;
+        for(int i = 0; i < team.length(); ++i){
+            int seat = players.indexOf(team.charAt(i));
+            if(seat >= 0){
+                mask |= 1L << seat;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * composition
+     *
+     * @param mask      Bit mask over the positions in the players string
+     * @return          The names of the players in mask
+     */
+    private String composition(long mask){
+        StringBuilder team = new StringBuilder();
+        for(long m = mask; m != 0; m &= m - 1){
+            team.append(players.charAt(Long.numberOfTrailingZeros(m)));
+        }
+        return team.toString();
+    }
+
     /**
      * characterRelativeComplement
      *
@@ -297,12 +533,13 @@ public class DimitriDevil implements Agent{
     private void considerAllTeamSuspicion(ArrayList<PBlock> allPossibleTeams, ArrayList<PBlock> suspicionArr, String personToExclude){
         int possibleSpies;
         double normalisationFactor = 1.0;
+        long excluded = personToExclude == null ? 0 : seatMask(personToExclude);
 
         // Exclude this person
         if (personToExclude != null) {
             normalisationFactor = 0.0;
             for(PBlock spyCombo : suspicionArr) {
-                if (!spyCombo.composition.contains(personToExclude)) {
+                if ((spyCombo.mask & excluded) == 0) {
                     normalisationFactor += spyCombo.suspicion;
                 }
             }
@@ -312,11 +549,11 @@ public class DimitriDevil implements Agent{
         for(PBlock consideredTeam : allPossibleTeams) {
             for (PBlock spyCombo : suspicionArr) {
                 // Skip if excluding a player
-                if (personToExclude != null && spyCombo.composition.contains(personToExclude)) {
+                if ((spyCombo.mask & excluded) != 0) {
                     continue;
                 }
 
-                possibleSpies = characterIntersection(consideredTeam.composition, spyCombo.composition).length();
+                possibleSpies = Long.bitCount(consideredTeam.mask & spyCombo.mask);
                 // Check if minimum Spies present
                 if (possibleSpies >= minSpiesRequired) {
                     // Accumulate the suspicion and normalise
@@ -344,21 +581,49 @@ public class DimitriDevil implements Agent{
      */
     @Override
     public String do_Nominate(int number) {
+        fuseAccusations();
+        // The first nomination of the game is looked up in the opening book, which covers 5 to 10 players
+        if(book != null && numPlayers >= 5 && numPlayers <= Teams.MAX_PLAYERS && missionNum == 1 && numProposals == 0){
+            int team = book.nominate(numPlayers, name.charAt(0) - 'A', spy ? Teams.mask(spies) : 0);
+            // The book holds standard mission 1 teams, so a team of another size is not used
+            if(team >= 0 && Integer.bitCount(team) == number){
+                return Teams.of(team);
+            }
+        }
+        // On large tables a sample of teams is considered, doubled for as long as the deadline allows
+        String team = Anytime.refine(ANYTIME_LEVELS > 0 ? deadline : 0, ANYTIME_RESERVE, ANYTIME_LEVELS,
+                level -> level > 0 && nominationExhaustive ? null : nominate(number, MAX_TEAMS << level));
+        if(statCheck){
+            write(name + " is nominating the team " + team + ">>>>>>>>>>>>>>>");
+        }
+        return team;
+    }
+
+    /**
+     * nominate
+     *
+     * Picks the least suspicious team with me on it, from every team or, if there are more than limit, a sample of them.
+     * @param number    The size of the team
+     * @param limit     The most teams to consider
+     * @return          The team's composition
+     */
+    private String nominate(int number, int limit){
         ArrayList<PBlock> lowSuspicionTeam = new ArrayList<>();
+        boolean exhaustive;
         // Initalise all possible mission team combinations and intialise to 0 suspicion
         if(!spy){
             // Only trust self
-            getPlayerCombinations(lowSuspicionTeam, playersExcludeSelf, number - 1);
+            exhaustive = getPlayerCombinations(lowSuspicionTeam, playersExcludeSelf, number - 1, limit);
         }
         else {
             if (minSpiesRequired == 1) {
                 // Get all player combinations without spies to seed suspicion
-                getPlayerCombinations(lowSuspicionTeam, resistanceMembers, number - 1);
+                exhaustive = getPlayerCombinations(lowSuspicionTeam, resistanceMembers, number - 1, limit);
             }
             else {
                 // If we need another spy to go with us, consider all combinations with exactly
                 // one other spy except ourselves.
-                getPlayerCombinations(lowSuspicionTeam, resistanceMembers, number - 2);
+                exhaustive = getPlayerCombinations(lowSuspicionTeam, resistanceMembers, number - 2, limit / (numSpies - 1));
                 ArrayList<PBlock> lowSuspicionTeamWithSecondSpy = new ArrayList<>();
                 for (PBlock block : lowSuspicionTeam) {
                     for (char spy : spies.toCharArray()) {
@@ -371,12 +636,18 @@ public class DimitriDevil implements Agent{
             }
         }
 
+        nominationExhaustive = exhaustive;
+
         // Add myself to each team being considered.
         ArrayList<PBlock> lowSuspicionTeamIncludingMe = new ArrayList<>();
         for (PBlock block : lowSuspicionTeam) {
             lowSuspicionTeamIncludingMe.add(new PBlock(block.composition + name, 0.0));
         }
         lowSuspicionTeam = lowSuspicionTeamIncludingMe;
+        // A sample of teams can miss the best one, so the greedy team is considered too
+        if(!exhaustive){
+            lowSuspicionTeam.add(new PBlock(leastSuspiciousTeam(number), 0.0));
+        }
 
 
         if (!spy){
@@ -392,12 +663,55 @@ public class DimitriDevil implements Agent{
         // Now have informed decision of providing best possible teams to go along with self as a leader (naive)
         // Return least likely team to have a spy on it plus self
         // As naive, works for Government spy and Resistance member
-        if(statCheck){
-            write(name + " is nominating the team " + lowSuspicionTeam.get(0).composition + ">>>>>>>>>>>>>>>");
-        }
         return lowSuspicionTeam.get(0).composition;
     }
 
+    /**
+     * leastSuspiciousTeam
+     *
+     * Builds a team greedily for tables too large to consider every team: myself, another spy if I'm a spy and
+     * two betrayals are needed, then the players least likely to be spies on their own.
+     * @param number    The size of the team
+     * @return          The team's composition
+     */
+    private String leastSuspiciousTeam(int number){
+        // Each player's marginal probability of being a spy, from my perspective if I'm resistance
+        double[] marginal = new double[numPlayers];
+        long self = seatMask(name);
+        for(PBlock spyCombo : suspicion){
+            if(!spy && (spyCombo.mask & self) != 0){
+                continue;
+            }
+            for(long m = spyCombo.mask; m != 0; m &= m - 1){
+                marginal[Long.numberOfTrailingZeros(m)] += spyCombo.suspicion;
+            }
+        }
+        StringBuilder team = new StringBuilder(name);
+        if(spy && minSpiesRequired > 1){
+            team.append(leastSuspicious(spies, team, marginal));
+        }
+        String pool = spy ? resistanceMembers : playersExcludeSelf;
+        while(team.length() < number){
+            team.append(leastSuspicious(pool, team, marginal));
+        }
+        return team.toString();
+    }
+
+    /**
+     * leastSuspicious
+     *
+     * @return      The player in candidates but not yet in team with the lowest marginal suspicion
+     */
+    private char leastSuspicious(String candidates, StringBuilder team, double[] marginal){
+        char best = 0;
+        for(char c : candidates.toCharArray()){
+            if(team.indexOf(String.valueOf(c)) < 0 && (best == 0 || marginal[players.indexOf(c)] < marginal[players.indexOf(best)])){
+                best = c;
+            }
+        }
+        return best;
+    }
+
     /**
      * Provides information of a given mission.
      *
@@ -409,72 +723,145 @@ public class DimitriDevil implements Agent{
         // With more advanced model have the mission propositions with high suspicion reflect an increase in suspicion
         // or a small variable in suspicion for all combinations in which leader is part of, possibly something that learns
         // when played against self.
+        fuseAccusations();
         currLeader = leader;
         currProposedTeam = getSortedString(mission);
+        // The last proposed team is the one sent on the mission, so get_Mission is not needed
+        electedTeam = currProposedTeam;
+
+        // Bayesian update on suspicion array, unless another agent has seen the same history
+        extendHistory('P', leader);
+        extendHistory('T', currProposedTeam);
+        if(!recallPosterior()){
+            updateOnProposal(leader);
+            storePosterior();
+        }
+
+        missionTeamsStale = true;
+    }
+
+    /**
+     * considerMissionTeams
+     *
+     * Fills missionTeams with every team the size of the proposed team, sorted by suspicion.
+     */
+    private void considerMissionTeams(){
+        missionTeamsStale = false;
+        if(!missionTeams.isEmpty()){
+            missionTeams.clear();
+        }
+
+        // Get all possible player combinations.
+        // Missions with self included will have lower suspicion as I'm definitely part of the
+        // Resistance.
+        boolean exhaustive = getPlayerCombinations(missionTeams, players, currProposedTeam.length());
+        // A sample of teams may not hold the proposed team, which is the one being voted on
+        if(!exhaustive && !containsTeam(missionTeams, currProposedTeam)){
+            missionTeams.add(new PBlock(currProposedTeam, 0.0));
+        }
+        // Populate suspicion level of others
+        considerAllTeamSuspicion(missionTeams, suspicion, name);
+        // Sort the ArrayList by suspicion
+        Collections.sort(missionTeams);
+    }
 
+    private boolean containsTeam(ArrayList<PBlock> teams, String composition){
+        for(PBlock team : teams){
+            if(team.composition.equals(composition)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * updateOnProposal
+     *
+     * Bayesian update of the suspicion array on the proposal of currProposedTeam by the leader.
+     * @param leader    The leader who proposed the mission
+     */
+    private void updateOnProposal(String leader){
         // If I'm not the leader, check my suspicion for the team proposed
         // Use this information to perform Bayesian update on suspicion array
         // P(spyCombo are spies | mission proposed by leader)
-        Double prior;
-        Double likelihood;
-        Double unnormPos;
-        Double totalProbability = 0.0;
-        Double randomTeamPicking = 1.0/(double)(nChooseK(numPlayers, currProposedTeam.length()));
-        ArrayList<Double> unnormPosteriors = new ArrayList<>(suspicion.size());
-        String assumedSpiesInMission;
-
-        // Iterate through all possibly spy combinations to find unnorm posterior probabilites and total probability
-        for(PBlock spyCombo : suspicion){
-            // Determine likelihood = P(mission proposed | spyCombo are spies)
-            assumedSpiesInMission = characterIntersection(spyCombo.composition, currProposedTeam);
-            // Inherit prior probability from suspicion array
-            prior = spyCombo.suspicion;
+        // The likelihood only depends on whether the leader is a spy on the team, so it takes one of two values
+        final long teamMask = seatMask(currProposedTeam);
+        final long leaderMask = seatMask(leader);
+        final double spyLeaderLikelihood = proposalLikelihood(true, currProposedTeam.length(), minSpiesRequired);
+        final double otherLikelihood = proposalLikelihood(false, currProposedTeam.length(), minSpiesRequired);
+        update(spyMask -> (spyMask & teamMask & leaderMask) != 0 ? spyLeaderLikelihood : otherLikelihood, "get_ProposedMission");
+    }
 
+    /**
+     * proposalLikelihood
+     *
+     * P(mission proposed by leader | spies)
+     * @param spyLeader     Whether the assumed spies include the leader and the leader is on the team
+     * @param teamSize      The size of the team
+     * @param required      The number of betrayals needed to fail the mission
+     * @return              The likelihood
+     */
+    private double proposalLikelihood(boolean spyLeader, int teamSize, int required){
+        double likelihood = RANDOM_PLAY * (1.0/nChooseK(numPlayers, teamSize));
+        if(required > 1 && spyLeader) {
+            // Spy needs to ensure the right number of spies for the mission.
+            double numCombinations = nChooseK(numResistance, teamSize - required) * nChooseK(numSpies - 1, required - 1);
+            // non random play
+            likelihood += (1.0 - RANDOM_PLAY) * 1.0/numCombinations;
+        }
+        else {
+            // Leader picks others to go with them completely at random.
+            likelihood += (1.0 - RANDOM_PLAY) * 1.0/nChooseK(numPlayers - 1, teamSize - 1);
+        }
+        return likelihood;
+    }
 
-            likelihood = RANDOM_PLAY * randomTeamPicking;
-            if(minSpiesRequired > 1 && assumedSpiesInMission.contains(leader)) {
-                // Spy needs to ensure the right number of spies for the mission.
-                int numCombinations = nChooseK(numResistance, currProposedTeam.length() - minSpiesRequired) * nChooseK(numSpies - 1, minSpiesRequired - 1);
-                // non random play
-                likelihood += (1.0 - RANDOM_PLAY) * 1.0/(double)(numCombinations);
+    /**
+     * update
+     *
+     * Bayesian update of the belief on an observation, over every spy combination, or through the particle filter
+     * on tables with too many combinations.
+     * @param likelihood    P(observation | spies) for a mask of spies. The particle filter replays it later,
+     *                      so it must only depend on values captured when the observation was made.
+     * @param event         The observation, for statCheck output
+     */
+    private void update(LongToDoubleFunction likelihood, String event){
+        if(particles != null){
+            if(particles.reweight(likelihood)){
+                // Resampled, so the particles may now stand for different combinations
+                for(int i = 0; i < suspicion.size(); ++i){
+                    if(suspicion.get(i).mask != particles.particle(i)){
+                        suspicion.get(i).setComposition(composition(particles.particle(i)));
+                    }
+                }
             }
-            else {
-                // Leader picks others to go with them completely at random.
-                likelihood += (1.0 - RANDOM_PLAY) * 1.0/(double)(nChooseK(numPlayers - 1, currProposedTeam.length() - 1));
+            for(int i = 0; i < suspicion.size(); ++i){
+                suspicion.get(i).suspicion = particles.weight(i);
             }
-
-            unnormPos = prior*likelihood;
-            unnormPosteriors.add(unnormPos);
-            totalProbability += unnormPos;
         }
-
-        // Now that total Probability and unnormPosteriors are known, update prior with newly calculated posterior
-        for(int i = 0; i < suspicion.size(); ++i){
-            // Add posterior probability
-            suspicion.get(i).suspicion = unnormPosteriors.get(i)/totalProbability;
+        else{
+            double totalProbability = 0.0;
+            double[] unnormPosteriors = new double[suspicion.size()];
+            // Iterate through all possibly spy combinations to find unnorm posterior probabilites and total probability
+            for(int i = 0; i < suspicion.size(); ++i){
+                PBlock spyCombo = suspicion.get(i);
+                unnormPosteriors[i] = spyCombo.suspicion * likelihood.applyAsDouble(spyCombo.mask);
+                totalProbability += unnormPosteriors[i];
+            }
+            // Now that total Probability and unnormPosteriors are known, update prior with newly calculated posterior
+            for(int i = 0; i < suspicion.size(); ++i){
+                suspicion.get(i).suspicion = unnormPosteriors[i]/totalProbability;
+            }
         }
 
         if(statCheck){
             for(PBlock s : suspicion){
                 if(name.equals("A")){
-                    write(name + " says : Spyblock after get_ProposedMission is " + s.composition + " has suspicion level " + s.suspicion);
+                    write(name + " says : Spyblock after " + event + " is " + s.composition + " has suspicion level " + s.suspicion);
                 }
             }
             write("\n");
         }
-
-        if(!missionTeams.isEmpty()){
-            missionTeams.clear();
-        }
-
-        // Get all possible player combinations.
-        // Missions with self included will have lower suspicion as I'm definitely part of the
-        // Resistance.
-        getPlayerCombinations(missionTeams, players, currProposedTeam.length());
-        // Populate suspicion level of others
-        considerAllTeamSuspicion(missionTeams, suspicion, name);
-        // Sort the ArrayList by suspicion
-        Collections.sort(missionTeams);
     }
 
     /**
@@ -492,6 +879,16 @@ public class DimitriDevil implements Agent{
         if(currLeader.equals(name) || numProposals == 4){
             return true;
         }
+        // The first vote of the game is looked up in the opening book
+        if(!spy && book != null && numPlayers >= 5 && numPlayers <= Teams.MAX_PLAYERS && missionNum == 1 && numProposals == 1){
+            int vote = book.vote(numPlayers, name.charAt(0) - 'A', currLeader.charAt(0) - 'A', Teams.mask(currProposedTeam));
+            if(vote >= 0){
+                return vote == 1;
+            }
+        }
+        if(missionTeamsStale){
+            considerMissionTeams();
+        }
         // Get average suspicion level
         Boolean belowMidRange = false;
         double midRange = (missionTeams.get(0).suspicion + missionTeams.get(missionTeams.size()-1).suspicion) /(double)numPlayers;
@@ -540,99 +937,96 @@ public class DimitriDevil implements Agent{
      **/
     @Override
     public void get_Votes(String yays) {
-        // Need to do Bayesian updates to improve suspicion whether 0 or greater than 0
-        Double prior;
-        Double likelihood;
-        Double unnormPos;
-        Double totalProbability = 0.0;
-        ArrayList<Double> unnormPosteriors = new ArrayList<>(suspicion.size());
-        String nays = characterRelativeComplement(players, yays);
-        String assumedSpiesinProposedTeam;
-
-        for (PBlock spyCombo : suspicion){
-            assumedSpiesinProposedTeam = characterIntersection(currProposedTeam, spyCombo.composition);
-            int numSpiesInTeam = assumedSpiesinProposedTeam.length();
-            // inherit last posterior
-            prior = spyCombo.suspicion;
-
-            // Default false vote for spies
-            boolean spies_should_vote_yay = false;
-            // Resistance vote yay with preset probability.
-            // Resistance are alowed to change their vote split up by a factor of 0.5
-            double resistance_yay_probability = RESISTANCE_YAY;
-
-            // If it's the last proposal we assume the same likelihood regardless of the spy combo,
-            // since spies and non-spies are equally likely to make this blunder.
-            if (numProposals == 4) {
-                spies_should_vote_yay = true;
-                resistance_yay_probability = 1 - VOTING_BLUNDER;
-            }
-            else {
-                // Spies won't vote for a team if there isn't enough spies
-                if (numSpiesInTeam < minSpiesRequired) {
-                    spies_should_vote_yay = false;
-                }
-                // Spies are expected to vote yes for when a team has the minRequired spies to fail the mission
-                // Naive strategy
-                else if (numSpiesInTeam == minSpiesRequired) {
-                    spies_should_vote_yay = true;
-                }
-                else {
-                    //  When numFailures == 2 desperate to get any mission in which they can win a game
-                    if (numFailures == 2) {
-                        spies_should_vote_yay = true;
-                    }
-                    // coordinated with non-leaders betraying when > 2 required
-                    // if only 1 then the leader should betray as minimum evidence provided
-                    else if (spyCombo.composition.contains(currLeader) && minSpiesRequired == 1) {
-                        spies_should_vote_yay = true;
-                    }
-                }
-            }
-
-            // Likelihood that a Spy will vote yes when it should be voting yes
-            double spy_yay_probability = spies_should_vote_yay ? 1.0 - VOTING_BLUNDER : VOTING_BLUNDER;
-            // Assume that when spies are voting in a coordinated fashion that they are setting up to fail
-            // a mission
-            // Likelihood is product of the independent likelihoods for each individual voter.
-            likelihood = 1.0;
-            for ( Character yay : yays.toCharArray()) {
-                if (spyCombo.composition.contains(yay + "")) {
-                    likelihood *= spy_yay_probability;
-                }
-                else {
-                    likelihood *= resistance_yay_probability;
-                }
-            }
+        extendHistory('V', yays);
+        if(!recallPosterior()){
+            updateOnVotes(yays);
+            storePosterior();
+        }
+    }
 
-            for (Character nay : nays.toCharArray()) {
-                if (spyCombo.composition.contains(nay + "")) {
-                    likelihood *= 1.0 - spy_yay_probability;
-                }
-                else {
-                    likelihood *= 1.0 - resistance_yay_probability;
-                }
-            }
+    /**
+     * updateOnVotes
+     *
+     * Bayesian update of the suspicion array on the votes for currProposedTeam.
+     * A spy combination's likelihood only depends on whether its spies should vote for the team and on how many of
+     * them voted for it (the rest voted against), so it is looked up in a table built once per vote.
+     * @param yays  The names of the agents who voted for the mission
+     */
+    private void updateOnVotes(String yays) {
+        // Need to do Bayesian updates to improve suspicion whether 0 or greater than 0
+        final long teamMask = seatMask(currProposedTeam);
+        final long leaderMask = seatMask(currLeader);
+        final long yayMask = seatMask(yays);
+        final int proposals = numProposals;
+        final int required = minSpiesRequired;
+        final int failures = numFailures;
+        final double[][] likelihoods = voteLikelihoods(yays.length(), proposals);
+        update(spyMask -> likelihoods[spiesShouldVoteYay(spyMask, teamMask, leaderMask, proposals, required, failures) ? 1 : 0][Long.bitCount(spyMask & yayMask)], "get_Votes");
+    }
 
-            // Unnorm posterior
-            unnormPos = prior * likelihood;
-            unnormPosteriors.add(unnormPos);
-            totalProbability += unnormPos;
+    /**
+     * spiesShouldVoteYay
+     *
+     * @param spyMask       The assumed spies
+     * @param teamMask      The proposed team
+     * @param leaderMask    The leader who proposed it
+     * @param proposals     The number of proposals so far this mission
+     * @param required      The number of betrayals needed to fail the mission
+     * @param failures      The number of failed missions
+     * @return              true if spyMask's spies are expected to vote for the team
+     */
+    private boolean spiesShouldVoteYay(long spyMask, long teamMask, long leaderMask, int proposals, int required, int failures) {
+        // If it's the last proposal we assume the same likelihood regardless of the spy combo,
+        // since spies and non-spies are equally likely to make this blunder.
+        if (proposals == 4) {
+            return true;
         }
-
-        // Now that total Probability and unnormPosteriors are known
-        for(int i = 0; i < suspicion.size(); ++i){
-            // Add posterior probability
-            suspicion.get(i).suspicion = unnormPosteriors.get(i)/totalProbability;
+        int numSpiesInTeam = Long.bitCount(teamMask & spyMask);
+        // Spies won't vote for a team if there isn't enough spies
+        if (numSpiesInTeam < required) {
+            return false;
         }
-        if(statCheck){
-            for(PBlock s : suspicion){
-                if(name.equals("A")){
-                    write(name + " says : Spyblock after get_Votes is " + s.composition + " has suspicion level " + s.suspicion);
+        // Spies are expected to vote yes for when a team has the minRequired spies to fail the mission
+        // Naive strategy
+        else if (numSpiesInTeam == required) {
+            return true;
+        }
+        //  When numFailures == 2 desperate to get any mission in which they can win a game
+        // coordinated with non-leaders betraying when > 2 required
+        // if only 1 then the leader should betray as minimum evidence provided
+        return failures == 2 || ((spyMask & leaderMask) != 0 && required == 1);
+    }
+
+    /**
+     * voteLikelihoods
+     *
+     * Table of P(votes | spies) by whether the spies should vote yay (0 no, 1 yes) and the number of spies among the yays.
+     * Likelihood is product of the independent likelihoods for each individual voter.
+     * @param numYays       The number of players who voted for the team
+     * @param proposals     The number of proposals so far this mission
+     * @return              The table, indexed [should vote yay][spies among yays]
+     */
+    private double[][] voteLikelihoods(int numYays, int proposals) {
+        int numNays = numPlayers - numYays;
+        // Resistance vote yay with preset probability.
+        // Resistance are alowed to change their vote split up by a factor of 0.5
+        double resistance_yay_probability = proposals == 4 ? 1 - VOTING_BLUNDER : RESISTANCE_YAY;
+        double[][] likelihoods = new double[2][numSpies + 1];
+        for (int shouldVoteYay = 0; shouldVoteYay < 2; ++shouldVoteYay) {
+            // Likelihood that a Spy will vote yes when it should be voting yes
+            double spy_yay_probability = shouldVoteYay == 1 ? 1.0 - VOTING_BLUNDER : VOTING_BLUNDER;
+            for (int spyYays = 0; spyYays <= numSpies; ++spyYays) {
+                int spyNays = numSpies - spyYays;
+                if (spyYays > numYays || spyNays > numNays) {
+                    continue;
                 }
+                likelihoods[shouldVoteYay][spyYays] = Math.pow(spy_yay_probability, spyYays)
+                        * Math.pow(resistance_yay_probability, numYays - spyYays)
+                        * Math.pow(1.0 - spy_yay_probability, spyNays)
+                        * Math.pow(1.0 - resistance_yay_probability, numNays - spyNays);
             }
-            write("\n");
         }
+        return likelihoods;
     }
 
     /**
@@ -661,50 +1055,12 @@ public class DimitriDevil implements Agent{
             return false;
         }
 
-        // Not enough spies - betrayal is pointless.
-        if (spiesOnMission < minSpiesRequired) {
-            if(statCheck) write(name + " did not betray>>>>>>>>>>>>>>>");
-            return false;
-        }
-        // Perfect situaton: # of spies = # betrayals required, so all spies will betray.
-        else if (spiesOnMission == minSpiesRequired) {
-            if(statCheck) write(name + " did betray>>>>>>>>>>>>>>>");
-            return true;
-        }
-        // Too many spies: we may need to worry about giving away spy identities via excess betrayals.
-        else {
-            // Mission failure would end the game: excess betrayals don't matter.
-            if(missionNum == 1 && currProposedTeam.length() == 2){
-                return false;
-            }
-            if (numFailures == 2) {
-                if(statCheck) write(name + " did betray>>>>>>>>>>>>>>>");
-                return true;
-            }
-            // The spies must fail all remaining missions to win the game, so betrayal is necessary.
-            if (missionNum - numFailures == 3) {
-                // Gives away more information but pressured to betray to win
-                // In a better modelled agent may have differnt voting strategies
-                if(statCheck) write(name + " did betray>>>>>>>>>>>>>>>");
-                return true;
-            }
-
-            // Co-ordination solutions.
-
-            // One betrayal required: leader betrays.
-            if (currLeader.equals(name) && minSpiesRequired == 1) {
-                if(statCheck) write(name + " did betray>>>>>>>>>>>>>>>");
-                return true;
-            }
-
-            // # betrayals required = # of non-leader spies: non-leaders betray.
-            if(!currLeader.equals(name) && (spiesOnMission - minSpiesRequired == 1) && spies.contains(currLeader)) {
-                if(statCheck) write(name + " did betray>>>>>>>>>>>>>>>");
-                return true;
-            }
-        }
-        if(statCheck) write(name + " did not betray>>>>>>>>>>>>>>>");
-        return false;
+        // The spies on the team coordinate by role, on the plan that gives the best chance to win
+        int plan = BetrayalPlanner.plan(numPlayers, missionNum, numFailures, numBetrayals, spiesOnMission,
+                spies.contains(currLeader) && electedTeam.contains(currLeader), minSpiesRequired);
+        boolean betray = BetrayalPlanner.betrays(plan, currLeader.equals(name));
+        if(statCheck) write(name + (betray ? " did betray>>>>>>>>>>>>>>>" : " did not betray>>>>>>>>>>>>>>>"));
+        return betray;
     }
 
     /**
@@ -715,106 +1071,81 @@ public class DimitriDevil implements Agent{
      **/
     @Override
     public void get_Traitors(int traitors) {
-        // Need to do Bayesian updates to improve suspicion whether 0 or greater than 0
-        Double prior;
-        Double likelihood;
-        Double unnormPos;
-        Double totalProbability = 0.0;
-        ArrayList<Double> unnormPosteriors = new ArrayList<>(suspicion.size());
+        extendHistory('B', traitors);
+        if(!recallPosterior()){
+            updateOnTraitors(traitors);
+            storePosterior();
+        }
+        numBetrayals += traitors;
+    }
 
-        String assumedSpiesInElectedTeam;
+    /**
+     * updateOnTraitors
+     *
+     * Bayesian update of the suspicion array on the number of traitors on electedTeam.
+     * @param traitors  The number of people on the mission who chose to betray
+     */
+    private void updateOnTraitors(int traitors) {
         // Big assumption that traitors == spies and not resistance, hopefully implemented that Resistance
         // never betrays
 
         // If single traitor exists need to add suspicion for presence in team, regardless of win or not
         // Doesn't win in Misison 4 of 7 player and higher games
-        // if(traitors > 0){
-
-        for(PBlock spyCombo : suspicion){
-            assumedSpiesInElectedTeam = characterIntersection(electedTeam, spyCombo.composition);
-            int numSpiesInTeam = assumedSpiesInElectedTeam.length();
-            // inherit last posterior
-            prior = spyCombo.suspicion;
-
-            // Safe to assume not to vote as voting to betrya gives up information
-            boolean leader_should_betray = false;
-            boolean non_leader_should_betray = false;
-
-            if (numSpiesInTeam < minSpiesRequired) {
-                // Presumably no reason to vote to betray
-                // However it's possible for a spy to betary when should not
-                leader_should_betray = false;
-                non_leader_should_betray = false;
-            }
-            else if (numSpiesInTeam == minSpiesRequired) {
-                // Every reason to betray
-                leader_should_betray = true;
-                non_leader_should_betray = true;
-            }
-            else {
-                //  Can just win now as have enough voting strength to win
-                //  EZ GAME
-                if (numFailures == 2) {
-                    leader_should_betray = true;
-                    non_leader_should_betray = true;
-                }
-                // foced failures expected
-                else if (missionNum - numFailures == 3) {
-                    leader_should_betray = true;
-                    non_leader_should_betray = true;
-                }
-                // coordinated with non-leaders betraying when > 2 required
-                // if only 1 then the leader should betray
-                else if (spyCombo.composition.contains(currLeader)) {
-                    if (minSpiesRequired == 1) {
-                        leader_should_betray = true;
-                        non_leader_should_betray = false;
-                    }
-                    else if (assumedSpiesInElectedTeam.length() - minSpiesRequired == 1) {
-                        leader_should_betray = false;
-                        non_leader_should_betray = true;
-                    }
-                }
-            }
-
-
-            // spy combination does not include the current leader
-            if (!spyCombo.composition.contains(currLeader)) {
-                // probability that the non leader should betray = 95%, while the blunder case is 5% (when it does betray (unexpected)
-                double p_betray = non_leader_should_betray ? 1.0 - BETRAYAL_BLUNDER : BETRAYAL_BLUNDER;
-                // Binomial distribution (probability mass function)
-                likelihood = Math.pow(p_betray, traitors) * Math.pow(1.0 - p_betray, numSpiesInTeam - traitors) * nChooseK(numSpiesInTeam, traitors);
-            }
-            else{
-                double p_leader_betrays = leader_should_betray ? 1.0 - BETRAYAL_BLUNDER : BETRAYAL_BLUNDER;
-                double p_non_leader_betrays = non_leader_should_betray ? 1.0 - BETRAYAL_BLUNDER : BETRAYAL_BLUNDER;
-
-                likelihood = 0.0;
-                // Leader betrays, (traitors-1) non-leaders betray, (num_spies-traitors) non-leaders do not betray.
-                likelihood += p_leader_betrays * Math.pow(p_non_leader_betrays, traitors - 1) * Math.pow(1.0 - p_non_leader_betrays, numSpiesInTeam - traitors) * nChooseK(numSpiesInTeam-1, traitors-1);
-                // Leader does not betray, (traitors) non-leaders betray, (num_spies-traitors-1) non-leaders do not betray.
-                likelihood += (1 - p_leader_betrays) * Math.pow(p_non_leader_betrays, traitors) * Math.pow(1.0 - p_non_leader_betrays, numSpiesInTeam - traitors - 1) * nChooseK(numSpiesInTeam-1, traitors);
-            }
-
-            // Unnorm posterior
-            unnormPos = prior * likelihood;
-            unnormPosteriors.add(unnormPos);
-            totalProbability += unnormPos;
+        final long teamMask = seatMask(electedTeam);
+        final long leaderMask = seatMask(currLeader);
+        final int required = minSpiesRequired;
+        final int failures = numFailures;
+        final int mission = missionNum;
+        final int betrayals = numBetrayals;
+        // The likelihood only depends on how many spies were on the team and whether the leader is a spy on it, so it is looked up
+        final double[][] likelihoods = new double[2][numSpies + 1];
+        for (int numSpiesInTeam = 0; numSpiesInTeam <= numSpies; ++numSpiesInTeam) {
+            likelihoods[0][numSpiesInTeam] = traitorLikelihood(numSpiesInTeam, false, traitors, required, failures, mission, betrayals);
+            likelihoods[1][numSpiesInTeam] = traitorLikelihood(numSpiesInTeam, true, traitors, required, failures, mission, betrayals);
         }
+        update(spyMask -> likelihoods[(spyMask & leaderMask & teamMask) != 0 ? 1 : 0][Long.bitCount(teamMask & spyMask)], "get_Traitors");
+    }
 
-        // Now that total Probability and unnormPosteriors are known
-        for(int i = 0; i < suspicion.size(); ++i){
-            // Add posterior probability
-            suspicion.get(i).suspicion = unnormPosteriors.get(i)/totalProbability;
+    /**
+     * traitorLikelihood
+     *
+     * P(traitors betrayed the mission | spies)
+     * @param numSpiesInTeam    The number of assumed spies on the team
+     * @param spyLeader         Whether the assumed spies include the leader and the leader is on the team
+     * @param traitors          The number of betrayals
+     * @param required          The number of betrayals needed to fail the mission
+     * @param failures          The number of failed missions before this one
+     * @param mission           The mission number
+     * @param betrayals         The number of betrayals in earlier missions
+     * @return                  The likelihood
+     */
+    private double traitorLikelihood(int numSpiesInTeam, boolean spyLeader, int traitors, int required, int failures, int mission, int betrayals) {
+        double likelihood;
+
+        // Spies are expected to betray on the planned coordination, and otherwise only by blunder
+        int plan = numSpiesInTeam < required ? BetrayalPlanner.NONE
+                : BetrayalPlanner.plan(numPlayers, mission, failures, betrayals, numSpiesInTeam, spyLeader, required);
+        boolean leader_should_betray = BetrayalPlanner.betrays(plan, true);
+        boolean non_leader_should_betray = BetrayalPlanner.betrays(plan, false);
+
+        // spy combination does not include the current leader
+        if (!spyLeader) {
+            // probability that the non leader should betray = 95%, while the blunder case is 5% (when it does betray (unexpected)
+            double p_betray = non_leader_should_betray ? 1.0 - BETRAYAL_BLUNDER : BETRAYAL_BLUNDER;
+            // Binomial distribution (probability mass function)
+            likelihood = Math.pow(p_betray, traitors) * Math.pow(1.0 - p_betray, numSpiesInTeam - traitors) * nChooseK(numSpiesInTeam, traitors);
         }
-        if(statCheck){
-            for(PBlock s : suspicion){
-                if(name.equals("A")){
-                    write(name + " says : Spyblock after get_Traitors is " + s.composition + " has suspicion level " + s.suspicion);
-                }
-            }
-            write("\n");
+        else{
+            double p_leader_betrays = leader_should_betray ? 1.0 - BETRAYAL_BLUNDER : BETRAYAL_BLUNDER;
+            double p_non_leader_betrays = non_leader_should_betray ? 1.0 - BETRAYAL_BLUNDER : BETRAYAL_BLUNDER;
+
+            likelihood = 0.0;
+            // Leader betrays, (traitors-1) non-leaders betray, (num_spies-traitors) non-leaders do not betray.
+            likelihood += p_leader_betrays * Math.pow(p_non_leader_betrays, traitors - 1) * Math.pow(1.0 - p_non_leader_betrays, numSpiesInTeam - traitors) * nChooseK(numSpiesInTeam-1, traitors-1);
+            // Leader does not betray, (traitors) non-leaders betray, (num_spies-traitors-1) non-leaders do not betray.
+            likelihood += (1 - p_leader_betrays) * Math.pow(p_non_leader_betrays, traitors) * Math.pow(1.0 - p_non_leader_betrays, numSpiesInTeam - traitors - 1) * nChooseK(numSpiesInTeam-1, traitors);
         }
+        return likelihood;
     }
 
     /**
@@ -837,7 +1168,7 @@ public class DimitriDevil implements Agent{
     }
 
     /**
-     * Optional method to process an accusation.
+     * Holds an accusation until the round's accusations are all in, see fuseAccusations.
      *
      * @param accuser the name of the agent making the accusation.
      * @param accused the names of the Agents being Accused, concatenated in a String.
@@ -845,6 +1176,133 @@ public class DimitriDevil implements Agent{
      */
     @Override
     public void get_Accusation(String accuser, String accused) {
+        holdAccusation(accuser.charAt(0), accused);
+    }
+
+    /**
+     * Holds all of a round's accusations, see fuseAccusations.
+     *
+     * @param accusers a String containing the name of each accuser, in the order of the accusations.
+     * @param accused  accused.get(i) is the names of the Agents accused by accusers.charAt(i), concatenated in a String.
+     * return within 100ms
+     */
+    @Override
+    public void get_Accusations(String accusers, List<String> accused) {
+        for(int i = 0; i < accusers.length(); ++i){
+            holdAccusation(accusers.charAt(i), accused.get(i));
+        }
+    }
+
+    /**
+     * holdAccusation
+     *
+     * Adds an accusation to the public history and holds it for the next update. An accusation that names the accuser,
+     * repeats a name or names someone not playing is held as empty, which tells nothing.
+     * @param accuser   The name of the accuser
+     * @param accused   The names of the accused
+     */
+    private void holdAccusation(char accuser, String accused) {
+        if(accused == null){
+            accused = "";
+        }
+        extendHistory('A', accuser);
+        extendHistory('C', accused);
+        int seat = players.indexOf(accuser);
+        if(seat < 0){
+            return;
+        }
+        long mask = seatMask(accused);
+        if(Long.bitCount(mask) != accused.length() || (mask & 1L << seat) != 0){
+            mask = 0;
+        }
+        pendingAccusations[seat] = mask;
+        pendingAccusers |= 1L << seat;
+    }
+
+    /**
+     * fuseAccusations
+     *
+     * Bayesian update on every accusation held since the last one, in a single pass over the belief,
+     * unless another agent has seen the same history.
+     */
+    private void fuseAccusations() {
+        if(pendingAccusers == 0){
+            return;
+        }
+        long accusers = pendingAccusers;
+        pendingAccusers = 0;
+        if(!recallPosterior()){
+            updateOnAccusations(accusers);
+            storePosterior();
+        }
+    }
+
+    /**
+     * updateOnAccusations
+     *
+     * The accuser model: an accuser who names the likeliest spies other than themselves, by the public belief, is saying
+     * what every agent already knows, whichever side they are on, so the accusation tells nothing (this is what
+     * do_Accuse does, so agents do not feed each other's beliefs back to themselves). Otherwise a spy accuses others at
+     * random, while a resistance accuser is ACCUSATION_TRUST times as likely to name each spy as each resistance member,
+     * so an accusation of k others naming h spies has likelihood 1 / C(n - 1, k) from a spy and ACCUSATION_TRUST^h / Z(k)
+     * from resistance. Scaled by the product of every Z(k), the likelihood of the round factors over the spies of a
+     * combination: spy j contributes Z(k_j) / C(n - 1, k_j), the mean of ACCUSATION_TRUST^h over accusations of j's size,
+     * and ACCUSATION_TRUST for each resistance member accusing j. So the update costs a few operations for each spy of
+     * each combination, however many accused.
+     * @param accusers  Mask of the accusers whose accusations are held
+     */
+    private void updateOnAccusations(long accusers) {
+        // The accusation each accuser would make from the public belief: the likeliest combination, or for its members
+        // the likeliest combination without them
+        PBlock likeliest = suspicion.get(0);
+        for(PBlock spyCombo : suspicion){
+            if(spyCombo.suspicion > likeliest.suspicion){
+                likeliest = spyCombo;
+            }
+        }
+        final long[] echo = new long[numPlayers];
+        final double[] echoSuspicion = new double[numPlayers];
+        for(PBlock spyCombo : suspicion){
+            for(long m = likeliest.mask & ~spyCombo.mask; m != 0; m &= m - 1){
+                int seat = Long.numberOfTrailingZeros(m);
+                if(echo[seat] == 0 || spyCombo.suspicion > echoSuspicion[seat]){
+                    echo[seat] = spyCombo.mask;
+                    echoSuspicion[seat] = spyCombo.suspicion;
+                }
+            }
+        }
+        final long[] accusedBy = new long[numPlayers];
+        final double[] spyFactor = new double[numPlayers];
+        final double[] trust = new double[numPlayers + 1];
+        Arrays.fill(spyFactor, 1.0);
+        for(int h = 0; h <= numPlayers; ++h){
+            trust[h] = Math.pow(ACCUSATION_TRUST, h);
+        }
+        for(long m = accusers; m != 0; m &= m - 1){
+            int accuser = Long.numberOfTrailingZeros(m);
+            long accused = pendingAccusations[accuser];
+            long expected = (likeliest.mask & 1L << accuser) == 0 ? likeliest.mask : echo[accuser];
+            int k = Long.bitCount(accused);
+            if(k == 0 || accused == expected){
+                continue;
+            }
+            double meanTrust = 0.0;
+            for(int h = 0; h <= Math.min(k, numSpies); ++h){
+                meanTrust += nChooseK(numSpies, h) * nChooseK(numPlayers - 1 - numSpies, k - h) * trust[h];
+            }
+            spyFactor[accuser] = meanTrust / nChooseK(numPlayers - 1, k);
+            for(long a = accused; a != 0; a &= a - 1){
+                accusedBy[Long.numberOfTrailingZeros(a)] |= 1L << accuser;
+            }
+        }
+        update(spyMask -> {
+            double likelihood = 1.0;
+            for(long m = spyMask; m != 0; m &= m - 1){
+                int j = Long.numberOfTrailingZeros(m);
+                likelihood *= spyFactor[j] * trust[Long.bitCount(accusedBy[j] & ~spyMask)];
+            }
+            return likelihood;
+        }, "get_Accusations");
     }
 
     /**
@@ -855,11 +1313,14 @@ public class DimitriDevil implements Agent{
     private class PBlock implements Comparable<PBlock>{
         private String composition;
         private Double suspicion;
+        // The composition as a mask over the players string
+        private long mask;
 
         // PBLock Constructor
         private PBlock(String composition, Double suspicion){
             // Always sorted
             this.composition = getSortedString(composition);
+            this.mask = seatMask(this.composition);
             this.suspicion = suspicion;
         }
 
@@ -902,6 +1363,7 @@ public class DimitriDevil implements Agent{
         public void setComposition(String newComp){
             // make sure all inputs are sorted
             composition = getSortedString(newComp);
+            mask = seatMask(composition);
         }
 
         private void setSuspicion(Double newSuspicion){
@@ -0,0 +1,163 @@
+package s21469477;
+import cits3001_2016s2.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.stream.IntStream;
+
+/**
+ * OpeningBook holds an agent's decisions for the opening of the game: the first nomination and the first vote of mission 1.
+ * At that point the agent has only seen the uniform prior and (when voting) a single proposal, so the decision depends on
+ * nothing more than the table size, the agent's seat, the spies it knows of, the leader and the proposed team.
+ * The book is generated offline by running the agent itself on every such state (see main), and written as a flat binary
+ * file that agents memory map at class load and read with a single index lookup.
+ *
+ * Layout (big endian): magic, version, then for each table size n from 5 to 10
+ *      nominations: n * 1024 shorts, indexed by seat * 1024 + spy mask (0 for resistance), holding the team mask
+ *      votes: n * n * 1024 bytes, indexed by (seat * n + leader) * 1024 + team mask, holding 1 for yes, 0 for no (resistance only)
+ * Entries not in the book hold -1.
+ *
+ */
+public class OpeningBook {
+    private static final int MAGIC = 0x52424b31;
+    private static final int VERSION = 1;
+    private static final int HEADER = 8;
+    private static final int[] NOMINATE_OFFSET = new int[11];
+    private static final int[] VOTE_OFFSET = new int[11];
+    private static final int SIZE;
+    // Set while generating, so agents compute every decision rather than reading an old book
+    private static boolean generating = false;
+
+    static {
+        int offset = HEADER;
+        for(int n = 5; n <= 10; ++n){
+            NOMINATE_OFFSET[n] = offset;
+            offset += n * 1024 * 2;
+            VOTE_OFFSET[n] = offset;
+            offset += n * n * 1024;
+        }
+        SIZE = offset;
+    }
+
+    private final ByteBuffer book;
+
+    private OpeningBook(ByteBuffer book){
+        this.book = book;
+    }
+
+    /**
+     * load
+     *
+     * Memory maps the book of an agent class, <i>SimpleName</i>.book in the directory given by the s21469477.book.dir
+     * system property (the working directory by default).
+     * @param agent     The agent class
+     * @return          The book, or null if there is no valid book, in which case the agent computes its opening
+     */
+    public static OpeningBook load(Class<?> agent){
+        if(generating){
+            return null;
+        }
+        Path path = Paths.get(System.getProperty("s21469477.book.dir", "."), agent.getSimpleName() + ".book");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(channel.size() != SIZE){
+                return null;
+            }
+            ByteBuffer book = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            if(book.getInt(0) != MAGIC || book.getInt(4) != VERSION){
+                return null;
+            }
+            return new OpeningBook(book);
+        }
+        catch(IOException | RuntimeException e){
+            return null;
+        }
+    }
+
+    /**
+     * nominate
+     *
+     * @param numPlayers    The number of players
+     * @param seat          The nominating agent's seat, 0 for A
+     * @param spyMask       Mask of the spies if the agent is a spy, 0 if resistance
+     * @return              Mask of the team the agent nominates first in mission 1, or -1 if not in the book
+     */
+    public int nominate(int numPlayers, int seat, int spyMask){
+        return book.getShort(NOMINATE_OFFSET[numPlayers] + 2 * (seat * 1024 + spyMask));
+    }
+
+    /**
+     * vote
+     *
+     * @param numPlayers    The number of players
+     * @param seat          The voting agent's seat, 0 for A
+     * @param leader        The leader's seat
+     * @param team          Mask of the proposed team
+     * @return              1 if the resistance agent votes for the first proposal of mission 1, 0 if against,
+     *                      -1 if not in the book
+     */
+    public int vote(int numPlayers, int seat, int leader, int team){
+        return book.get(VOTE_OFFSET[numPlayers] + (seat * numPlayers + leader) * 1024 + team);
+    }
+
+    /**
+     * main
+     *
+     * Generates the book for an agent by playing out every opening state on fresh instances of the agent.
+     * @param args  The agent class name (s21469477.HeuristicAgent by default) and the output file
+     *              (<i>SimpleName</i>.book by default)
+     */
+    public static void main(String[] args) throws Exception{
+        generating = true;
+        Class<?> agent = Class.forName(args.length > 0 ? args[0] : HeuristicAgent.class.getName());
+        Path out = Paths.get(args.length > 1 ? args[1] : agent.getSimpleName() + ".book");
+        ByteBuffer book = ByteBuffer.allocate(SIZE);
+        book.putInt(0, MAGIC).putInt(4, VERSION);
+        for(int i = HEADER; i < SIZE; ++i){
+            book.put(i, (byte)-1);
+        }
+        for(int n = 5; n <= 10; ++n){
+            final int numPlayers = n;
+            final int teamSize = Game.missionSize(n, 1);
+            final String players = Teams.of((1 << n) - 1);
+            final String unknown = Teams.unknown(Game.spyNum(n));
+            // Agents are independent, so seats are generated in parallel
+            IntStream.range(0, n).parallel().forEach(seat -> {
+                String name = Teams.name(seat);
+                Agent a = create(agent);
+                a.get_status(name, players, unknown, 1, 0);
+                book.putShort(NOMINATE_OFFSET[numPlayers] + 2 * seat * 1024, (short)Teams.mask(a.do_Nominate(teamSize)));
+                for(int spyMask = 0; spyMask < 1 << numPlayers; ++spyMask){
+                    if((spyMask & 1 << seat) != 0 && Integer.bitCount(spyMask) == Game.spyNum(numPlayers)){
+                        a = create(agent);
+                        a.get_status(name, players, Teams.of(spyMask), 1, 0);
+                        book.putShort(NOMINATE_OFFSET[numPlayers] + 2 * (seat * 1024 + spyMask), (short)Teams.mask(a.do_Nominate(teamSize)));
+                    }
+                }
+                for(int leader = 0; leader < numPlayers; ++leader){
+                    for(int team = 0; team < 1 << numPlayers; ++team){
+                        if(Integer.bitCount(team) == teamSize){
+                            a = create(agent);
+                            a.get_status(name, players, unknown, 1, 0);
+                            a.get_ProposedMission(Teams.name(leader), Teams.of(team));
+                            book.put(VOTE_OFFSET[numPlayers] + (seat * numPlayers + leader) * 1024 + team, (byte)(a.do_Vote() ? 1 : 0));
+                        }
+                    }
+                }
+            });
+            System.out.println("Generated openings for " + n + " players");
+        }
+        Path tmp = Paths.get(out + ".tmp");
+        Files.write(tmp, book.array());
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Agent create(Class<?> agent){
+        try{
+            return (Agent)agent.getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException e){
+            throw new RuntimeException("Cannot create " + agent.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package s21469477;
+import java.util.*;
+import java.util.function.LongPredicate;
+import java.util.function.LongToDoubleFunction;
+
+/**
+ * ParticleFilter is a sequential Monte Carlo belief over who the spies are, for tables where there are too many
+ * spy combinations to keep a probability for each. It holds a fixed number of weighted particles, each a mask of
+ * spies over the players string, drawn uniformly at the start of the game.
+ * Each observation multiplies the weights by its likelihood. When the effective sample size drops below half the
+ * particles they are resampled (systematic resampling), then each is moved by Metropolis-Hastings steps that swap a
+ * spy for a resistance member, accepted on the likelihood of every observation so far, so the duplicates resampling
+ * makes spread out over nearby combinations again.
+ * More particles give a closer posterior at a proportional cost in time per observation.
+ *
+ */
+public class ParticleFilter {
+    // Resample once the effective sample size is below this fraction of the particles
+    private static final double RESAMPLE_THRESHOLD = 0.5;
+
+    private final int numPlayers;
+    private final int numSpies;
+    private final long[] particles;
+    private final double[] weights;
+    // Log likelihood of every observation so far for each particle, so a move only scores the proposed combination
+    private final double[] logLikelihoods;
+    private final Random random;
+    // Every observation so far, to accept or reject moves against the full posterior
+    private final ArrayList<LongToDoubleFunction> observations = new ArrayList<>();
+    private int moves = 1;
+
+    /**
+     * ParticleFilter constructor
+     *
+     * @param numPlayers    The number of players
+     * @param numSpies      The number of spies
+     * @param count         The number of particles
+     * @param seed          Seed for drawing, resampling and moving particles, so a game can be replayed exactly
+     */
+    public ParticleFilter(int numPlayers, int numSpies, int count, long seed){
+        if(numPlayers > 64 || numSpies < 1 || numSpies >= numPlayers || count < 1){
+            throw new RuntimeException("Cannot track " + numSpies + " spies among " + numPlayers + " players with " + count + " particles");
+        }
+        this.numPlayers = numPlayers;
+        this.numSpies = numSpies;
+        this.particles = new long[count];
+        this.weights = new double[count];
+        this.logLikelihoods = new double[count];
+        this.random = new Random(seed);
+        for(int i = 0; i < count; ++i){
+            particles[i] = randomSpies();
+            weights[i] = 1.0 / count;
+        }
+    }
+
+    /**
+     * setMoves
+     *
+     * @param moves     Metropolis-Hastings steps per particle after each resampling, 0 for none
+     */
+    public void setMoves(int moves){
+        this.moves = moves;
+    }
+
+    public int size(){
+        return particles.length;
+    }
+
+    /**
+     * particle
+     *
+     * @param i     Index of the particle
+     * @return      Mask of the particle's spies, bit j for the j-th player
+     */
+    public long particle(int i){
+        return particles[i];
+    }
+
+    /**
+     * weight
+     *
+     * @param i     Index of the particle
+     * @return      The particle's normalised weight
+     */
+    public double weight(int i){
+        return weights[i];
+    }
+
+    /**
+     * effectiveSampleSize
+     *
+     * @return      1 / sum of squared weights, the number of equally weighted particles the set is worth
+     */
+    public double effectiveSampleSize(){
+        double sumSquares = 0.0;
+        for(double w : weights){
+            sumSquares += w * w;
+        }
+        return 1.0 / sumSquares;
+    }
+
+    /**
+     * probability
+     *
+     * @param event     Test on a mask of spies
+     * @return          The posterior probability of the event
+     */
+    public double probability(LongPredicate event){
+        double total = 0.0;
+        for(int i = 0; i < particles.length; ++i){
+            if(event.test(particles[i])){
+                total += weights[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * reweight
+     *
+     * Bayesian update of the particles on an observation, resampling if the weights have degenerated.
+     * @param likelihood    P(observation | spies) for a mask of spies. It is kept for moves, so it must not
+     *                      depend on state that changes later in the game.
+     * @return              true if the particles were resampled, so particle masks may have changed
+     */
+    public boolean reweight(LongToDoubleFunction likelihood){
+        observations.add(likelihood);
+        double total = 0.0;
+        for(int i = 0; i < particles.length; ++i){
+            double l = likelihood.applyAsDouble(particles[i]);
+            weights[i] *= l;
+            logLikelihoods[i] += Math.log(l);
+            total += weights[i];
+        }
+        if(!(total > 0.0)){
+            // No particle explains the observations: draw afresh and weight by everything seen
+            restart();
+            return true;
+        }
+        for(int i = 0; i < weights.length; ++i){
+            weights[i] /= total;
+        }
+        if(effectiveSampleSize() < RESAMPLE_THRESHOLD * particles.length){
+            resample();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * resample
+     *
+     * Systematic resampling: one uniform offset, then particles picked at evenly spaced points of the cumulative weights.
+     */
+    private void resample(){
+        int count = particles.length;
+        long[] resampled = new long[count];
+        double[] resampledLogLikelihoods = new double[count];
+        double step = 1.0 / count;
+        double point = random.nextDouble() * step;
+        double cumulative = weights[0];
+        int j = 0;
+        for(int i = 0; i < count; ++i){
+            while(point > cumulative && j < count - 1){
+                cumulative += weights[++j];
+            }
+            resampled[i] = particles[j];
+            resampledLogLikelihoods[i] = logLikelihoods[j];
+            point += step;
+        }
+        System.arraycopy(resampled, 0, particles, 0, count);
+        System.arraycopy(resampledLogLikelihoods, 0, logLikelihoods, 0, count);
+        Arrays.fill(weights, step);
+        for(int m = 0; m < moves; ++m){
+            move();
+        }
+    }
+
+    /**
+     * move
+     *
+     * One Metropolis-Hastings step for every particle. Swapping a spy for a resistance member is a symmetric
+     * proposal and the prior is uniform, so the move is accepted with the ratio of the likelihoods of all observations.
+     */
+    private void move(){
+        for(int i = 0; i < particles.length; ++i){
+            long current = particles[i];
+            long proposed = current ^ randomMember(current) ^ randomMember(~current & allPlayers());
+            // In logs, as the likelihood of a whole game underflows a double on large tables
+            double proposedLogLikelihood = logLikelihood(proposed);
+            double logRatio = proposedLogLikelihood - logLikelihoods[i];
+            if(logRatio >= 0.0 || random.nextDouble() < Math.exp(logRatio)){
+                particles[i] = proposed;
+                logLikelihoods[i] = proposedLogLikelihood;
+            }
+        }
+    }
+
+    /**
+     * restart
+     *
+     * Replaces every particle with a fresh uniform draw weighted by the likelihood of all observations so far.
+     */
+    private void restart(){
+        double max = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < particles.length; ++i){
+            particles[i] = randomSpies();
+            logLikelihoods[i] = logLikelihood(particles[i]);
+            max = Math.max(max, logLikelihoods[i]);
+        }
+        double total = 0.0;
+        for(int i = 0; i < weights.length; ++i){
+            weights[i] = max == Double.NEGATIVE_INFINITY ? 1.0 : Math.exp(logLikelihoods[i] - max);
+            total += weights[i];
+        }
+        for(int i = 0; i < weights.length; ++i){
+            weights[i] /= total;
+        }
+    }
+
+    private double logLikelihood(long spies){
+        double logLikelihood = 0.0;
+        for(LongToDoubleFunction observation : observations){
+            logLikelihood += Math.log(observation.applyAsDouble(spies));
+        }
+        return logLikelihood;
+    }
+
+    private long allPlayers(){
+        return numPlayers == 64 ? -1L : (1L << numPlayers) - 1;
+    }
+
+    private long randomSpies(){
+        long spies = 0;
+        while(Long.bitCount(spies) < numSpies){
+            spies |= 1L << random.nextInt(numPlayers);
+        }
+        return spies;
+    }
+
+    // A single bit of the mask, chosen uniformly
+    private long randomMember(long mask){
+        int skip = random.nextInt(Long.bitCount(mask));
+        for(int i = 0; i < skip; ++i){
+            mask &= mask - 1;
+        }
+        return Long.lowestOneBit(mask);
+    }
+}
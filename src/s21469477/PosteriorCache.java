@@ -0,0 +1,174 @@
+package s21469477;
+import cits3001_2016s2.TournamentMetrics;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PosteriorCache is a process wide store of normalised spy-combination posteriors, shared by every instance of an agent.
+ * Posteriors are keyed by a hash of the player count and the public history that produced them, so an agent
+ * that has seen the same proposals, votes and mission results as another agent can take its posterior instead
+ * of replaying the Bayesian updates. Once the cache holds more than its memory budget, posteriors are evicted
+ * by the clock algorithm: a hit marks a posterior as referenced, and the sweep spares a referenced posterior once,
+ * clearing its mark, so eviction approximates least recently used without ordering the map on every get.
+ * Lookups take no lock, and one thread at a time sweeps. The metrics are published as an MBean, see PosteriorCacheMBean.
+ *
+ */
+public class PosteriorCache implements PosteriorCacheMBean {
+    // Rough size of a map entry, its Long key, the entry holder and the array header, in bytes
+    private static final long ENTRY_OVERHEAD = 112;
+
+    private final String name;
+    private final long maxBytes;
+    private final ConcurrentHashMap<Long, Entry> posteriors = new ConcurrentHashMap<>(1024);
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // The clock hand, guarded by sweeping
+    private final ReentrantLock sweeping = new ReentrantLock();
+    private Iterator<Map.Entry<Long, Entry>> hand;
+
+    /**
+     * A cached posterior and its clock bit.
+     */
+    private static final class Entry {
+        final double[] posterior;
+        volatile boolean referenced;
+
+        Entry(double[] posterior){
+            this.posterior = posterior;
+        }
+    }
+
+    /**
+     * PosteriorCache constructor
+     *
+     * @param name          Name of the cache, used in metrics
+     * @param maxBytes      Memory budget, posteriors are evicted beyond it
+     */
+    public PosteriorCache(String name, long maxBytes){
+        this.name = name;
+        this.maxBytes = maxBytes;
+        TournamentMetrics.register(this, "s21469477:type=PosteriorCache,name=" + name);
+    }
+
+    /**
+     * get
+     *
+     * Looks up the posterior reached by a public history.
+     * @param key       Hash of the player count and public history
+     * @return          The posterior, which must not be modified, or null if it is not cached
+     */
+    public double[] get(long key){
+        Entry entry = posteriors.get(key);
+        if(entry == null){
+            misses.increment();
+            return null;
+        }
+        if(!entry.referenced){
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.posterior;
+    }
+
+    /**
+     * put
+     *
+     * Stores the posterior reached by a public history, evicting posteriors if over budget.
+     * @param key           Hash of the player count and public history
+     * @param posterior     The normalised posterior, which must not be modified afterwards
+     */
+    public void put(long key, double[] posterior){
+        Entry old = posteriors.put(key, new Entry(posterior));
+        long grown = size(posterior) - (old == null ? 0 : size(old.posterior));
+        if(bytes.addAndGet(grown) > maxBytes){
+            sweep();
+        }
+    }
+
+    /**
+     * sweep
+     *
+     * Moves the clock hand round the cache, evicting unreferenced posteriors until the cache is within budget.
+     * Called only by puts over budget, so lookups never wait for a sweep; a put that finds another
+     * thread sweeping waits for it, so puts cannot outrun the hand and overfill the cache.
+     * After two turns of the hand every posterior has had its second chance, so the rest are evicted regardless.
+     */
+    private void sweep(){
+        sweeping.lock();
+        try{
+            long chances = 2L * posteriors.size() + 1;
+            while(bytes.get() > maxBytes){
+                if(hand == null || !hand.hasNext()){
+                    hand = posteriors.entrySet().iterator();
+                    if(!hand.hasNext()){
+                        break;
+                    }
+                }
+                Map.Entry<Long, Entry> next = hand.next();
+                Entry entry = next.getValue();
+                if(entry.referenced && chances-- > 0){
+                    entry.referenced = false;
+                }
+                else if(posteriors.remove(next.getKey(), entry)){
+                    bytes.addAndGet(-size(entry.posterior));
+                    evictions.increment();
+                }
+            }
+        }
+        finally{
+            sweeping.unlock();
+        }
+    }
+
+    private static long size(double[] posterior){
+        return ENTRY_OVERHEAD + 8L * posterior.length;
+    }
+
+    // Metrics
+    @Override
+    public String getName(){
+        return name;
+    }
+
+    @Override
+    public long getHits(){
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    @Override
+    public long getEvictions(){
+        return evictions.sum();
+    }
+
+    @Override
+    public int getEntries(){
+        return posteriors.size();
+    }
+
+    @Override
+    public long getBytes(){
+        return bytes.get();
+    }
+
+    @Override
+    public double getHitRate(){
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : h / (double)total;
+    }
+
+    @Override
+    public String toString(){
+        return name + " posterior cache: " + getEntries() + " entries, " + getBytes() + " bytes, hit rate " + getHitRate();
+    }
+}
@@ -0,0 +1,21 @@
+package s21469477;
+
+/**
+ * The management interface of a PosteriorCache, published as s21469477:type=PosteriorCache,name=<i>name</i>
+ * (see cits3001_2016s2.TournamentMetrics).
+ */
+public interface PosteriorCacheMBean {
+    String getName();
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    int getEntries();
+
+    long getBytes();
+
+    double getHitRate();
+}